@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.util.Random;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Cursor;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Makes the images the translate benchmarks run on.
+ * <p>
+ * Pixel types are named {@code uint8}, {@code uint16}, {@code int16},
+ * {@code float32}, {@code int32} and {@code rgb} (three merged
+ * {@code uint8} channels); containers are named {@code array}, {@code planar}
+ * and {@code cell}.
+ * </p>
+ */
+final class BenchmarkImages {
+
+	private BenchmarkImages() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Creates a Dataset of size x size pixels and the given number of Z planes,
+	 * filled with reproducible random values.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static Dataset createDataset(final DatasetService datasetService,
+		final String type, final String container, final int size,
+		final int depth)
+	{
+		final boolean rgb = "rgb".equals(type);
+		final long[] dims = rgb ? //
+			new long[] { size, size, 3, depth } : new long[] { size, size, depth };
+		final AxisType[] axes = rgb ? //
+			new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z } : //
+			new AxisType[] { Axes.X, Axes.Y, Axes.Z };
+		final RealType pixelType = pixelType(type);
+		final Dataset ds = datasetService.create(factory(container),
+			pixelType, dims, type, axes);
+		if (rgb) ds.setRGBMerged(true);
+		fill(ds);
+		return ds;
+	}
+
+	/**
+	 * Creates an ImagePlus whose shape and type match a Dataset made by
+	 * {@link #createDataset}.
+	 */
+	static ImagePlus createImagePlus(final String type, final int size,
+		final int depth)
+	{
+		return IJ.createHyperStack(type, size, size, 1, depth, 1, bitDepth(type));
+	}
+
+	static int bitDepth(final String type) {
+		switch (type) {
+			case "uint8":
+				return 8;
+			case "uint16":
+			case "int16":
+				return 16;
+			case "rgb":
+				return 24;
+			default:
+				return 32;
+		}
+	}
+
+	// -- Helper methods --
+
+	private static RealType<?> pixelType(final String type) {
+		switch (type) {
+			case "uint8":
+			case "rgb":
+				return new UnsignedByteType();
+			case "uint16":
+				return new UnsignedShortType();
+			case "int16":
+				return new ShortType();
+			case "float32":
+				return new FloatType();
+			case "int32":
+				return new IntType();
+			default:
+				throw new IllegalArgumentException("Unknown pixel type: " + type);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static ImgFactory factory(final String container) {
+		switch (container) {
+			case "array":
+				return new ArrayImgFactory();
+			case "planar":
+				return new PlanarImgFactory();
+			case "cell":
+				return new CellImgFactory(256);
+			default:
+				throw new IllegalArgumentException("Unknown container: " + container);
+		}
+	}
+
+	private static void fill(final Dataset ds) {
+		final Random random = new Random(0xdecafbad);
+		final double min = Math.max(ds.getType().getMinValue(), -1e6);
+		final double range = Math.min(ds.getType().getMaxValue(), 1e6) - min;
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		while (cursor.hasNext()) {
+			cursor.next().setReal(min + random.nextDouble() * range);
+		}
+	}
+
+}
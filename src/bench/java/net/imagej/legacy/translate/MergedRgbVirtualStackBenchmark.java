@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.patcher.LegacyInjector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.scijava.Context;
+import org.scijava.event.EventService;
+
+/**
+ * Measures scrolling through a {@link MergedRgbVirtualStack}: every plane
+ * forward, then every plane back, as a user dragging the slice slider would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergedRgbVirtualStackBenchmark {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Param({ "planar", "cell" })
+	public String container;
+
+	@Param({ "512", "2048" })
+	public int size;
+
+	@Param({ "32" })
+	public int depth;
+
+	/** The plane cache budget in megabytes; 0 disables the cache. */
+	@Param({ "0", "256" })
+	public int cacheMB;
+
+	private Context context;
+	private MergedRgbVirtualStack stack;
+
+	@Setup
+	public void setUp() {
+		context = new Context(DatasetService.class, EventService.class);
+		final Dataset ds = BenchmarkImages.createDataset(context.getService(
+			DatasetService.class), "rgb", container, size, depth);
+		stack = new MergedRgbVirtualStack(ds);
+		stack.setCacheSize((long) cacheMB << 20);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Benchmark
+	public void scroll(final Blackhole blackhole) {
+		for (int n = 1; n <= depth; n++) {
+			blackhole.consume(stack.getProcessor(n));
+		}
+		for (int n = depth; n >= 1; n--) {
+			blackhole.consume(stack.getProcessor(n));
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.ImagePlus;
+
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.patcher.LegacyInjector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scijava.Context;
+
+/**
+ * Measures copying pixels between a {@link Dataset} and an {@link ImagePlus}
+ * through {@link GrayPixelHarmonizer} and {@link ColorPixelHarmonizer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PixelHarmonizerBenchmark {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Param({ "uint8", "uint16", "int16", "float32", "int32", "rgb" })
+	public String type;
+
+	@Param({ "array", "planar", "cell" })
+	public String container;
+
+	@Param({ "512", "2048" })
+	public int size;
+
+	@Param({ "1", "32" })
+	public int depth;
+
+	private Context context;
+	private Dataset ds;
+	private ImagePlus imp;
+	private DataHarmonizer harmonizer;
+
+	@Setup
+	public void setUp() {
+		context = new Context(DatasetService.class);
+		ds = BenchmarkImages.createDataset(context.getService(
+			DatasetService.class), type, container, size, depth);
+		imp = BenchmarkImages.createImagePlus(type, size, depth);
+		harmonizer = "rgb".equals(type) ? new ColorPixelHarmonizer() : //
+			new GrayPixelHarmonizer();
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Benchmark
+	public ImagePlus toLegacy() {
+		harmonizer.updateLegacyImage(ds, imp);
+		return imp;
+	}
+
+	@Benchmark
+	public Dataset toDataset() {
+		harmonizer.updateDataset(ds, imp);
+		return ds;
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.scijava.log.LogService;
+
+/**
+ * Runs tasks on a background thread, merging the tasks submitted for the same
+ * key while they wait.
+ * <p>
+ * A submitted task waits for at most the latency before it runs. Any task
+ * submitted for the same key in the meantime replaces it, keeping its place
+ * in the queue, so a burst of submissions for a key results in a single run.
+ * Keys run in the order they were first queued. At most the batch size of
+ * keys run per flush; the rest wait for the next one. With a latency of zero
+ * every task runs right away on the submitting thread.
+ * </p>
+ * 
+ * @param <K> The type of the keys that tasks are merged by
+ */
+public class CoalescingScheduler<K> {
+
+	// -- instance variables --
+
+	private final long latency;
+	private final int batchSize;
+	private final LogService log;
+
+	/** Queued tasks by key in first-queued order, guarded by this. */
+	private final Map<K, Runnable> queued = new LinkedHashMap<>();
+
+	/** Whether a flush is scheduled, guarded by this. */
+	private boolean scheduled;
+
+	/** Held while a batch runs, so that {@link #flush()} can wait for it. */
+	private final Object running = new Object();
+
+	private ScheduledExecutorService executor;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong merged = new AtomicLong();
+	private final AtomicLong executed = new AtomicLong();
+
+	// -- constructor --
+
+	/**
+	 * Constructs a CoalescingScheduler.
+	 * 
+	 * @param latency Milliseconds a task waits for others to merge with; zero
+	 *          or less runs every task immediately
+	 * @param batchSize Maximum number of keys that run per flush; zero or less
+	 *          for no limit
+	 * @param log Where to report failing tasks, or null
+	 */
+	public CoalescingScheduler(final long latency, final int batchSize,
+		final LogService log)
+	{
+		this.latency = latency;
+		this.batchSize = batchSize <= 0 ? Integer.MAX_VALUE : batchSize;
+		this.log = log;
+	}
+
+	// -- CoalescingScheduler methods --
+
+	/**
+	 * Submits a task for the given key, replacing any task still queued for it.
+	 */
+	public void submit(final K key, final Runnable task) {
+		submitted.incrementAndGet();
+		if (latency <= 0) {
+			execute(task);
+			return;
+		}
+		synchronized (this) {
+			if (queued.put(key, task) != null) merged.incrementAndGet();
+			if (!scheduled) {
+				scheduled = true;
+				executor().schedule(this::flushScheduled, latency,
+					TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Runs all queued tasks on the calling thread, after waiting for a batch
+	 * the background thread may be running.
+	 */
+	public void flush() {
+		synchronized (running) {
+			while (true) {
+				final List<Runnable> batch = take(Integer.MAX_VALUE);
+				if (batch.isEmpty()) return;
+				for (final Runnable task : batch) {
+					execute(task);
+				}
+			}
+		}
+	}
+
+	/** Gets the number of tasks submitted so far. */
+	public long getSubmittedCount() {
+		return submitted.get();
+	}
+
+	/** Gets the number of tasks that were replaced by a later one. */
+	public long getMergedCount() {
+		return merged.get();
+	}
+
+	/** Gets the number of tasks that ran. */
+	public long getExecutedCount() {
+		return executed.get();
+	}
+
+	/** Gets the number of keys whose task is still waiting. */
+	public synchronized int getQueuedCount() {
+		return queued.size();
+	}
+
+	/** Stops the background thread. Tasks still queued are dropped. */
+	public synchronized void dispose() {
+		queued.clear();
+		if (executor != null) executor.shutdownNow();
+		executor = null;
+		scheduled = false;
+	}
+
+	// -- Helper methods --
+
+	/** Runs one batch and schedules the next if more tasks are queued. */
+	private void flushScheduled() {
+		synchronized (running) {
+			final List<Runnable> batch = take(batchSize);
+			synchronized (this) {
+				if (queued.isEmpty() || executor == null) scheduled = false;
+				else executor.schedule(this::flushScheduled, latency,
+					TimeUnit.MILLISECONDS);
+			}
+			for (final Runnable task : batch) {
+				execute(task);
+			}
+		}
+	}
+
+	/** Removes up to the given number of tasks from the head of the queue. */
+	private synchronized List<Runnable> take(final int max) {
+		final List<Runnable> batch = new ArrayList<>();
+		final Iterator<Runnable> iter = queued.values().iterator();
+		while (iter.hasNext() && batch.size() < max) {
+			batch.add(iter.next());
+			iter.remove();
+		}
+		return batch;
+	}
+
+	private void execute(final Runnable task) {
+		try {
+			task.run();
+		}
+		catch (final RuntimeException exc) {
+			if (log != null) log.error(exc);
+			else throw exc;
+		}
+		finally {
+			executed.incrementAndGet();
+		}
+	}
+
+	private synchronized ScheduledExecutorService executor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				final Thread thread = new Thread(r, "imagej-legacy-updates");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+}
@@ -46,6 +46,9 @@ import ij.io.OpenDialog;
 import ij.io.Opener;
 import ij.io.SaveDialog;
 import ij.macro.Interpreter;
+import ij.macro.Program;
+import ij.macro.Tokenizer;
+import ij.macro.Variable;
 import ij.measure.ResultsTable;
 import ij.plugin.Commands;
 import ij.plugin.PlugIn;
@@ -66,20 +69,24 @@ import java.awt.Window;
 import java.awt.image.ImageProducer;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.function.IntToDoubleFunction;
 
 import javax.swing.SwingUtilities;
 
@@ -118,9 +125,20 @@ import org.scijava.util.ClassUtils;
  */
 public class IJ1Helper extends AbstractContextual {
 
+	/**
+	 * System property setting how many tokenized macros are kept for
+	 * {@link #runCompiledMacro(String)}. Zero disables the cache.
+	 */
+	public static final String MACRO_CACHE_PROPERTY =
+		"imagej.legacy.macroCacheSize";
+
 	/** A reference to the legacy service, just in case we need it. */
 	private final LegacyService legacyService;
 
+	/** Tokenized macros, reused by {@link #runCompiledMacro(String)}. */
+	private final MacroCache macroCache = new MacroCache(Integer.getInteger(
+		MACRO_CACHE_PROPERTY, 64));
+
 	@Parameter
 	private LogService log;
 
@@ -556,6 +574,17 @@ public class IJ1Helper extends AbstractContextual {
 		return Interpreter.getInstance();
 	}
 
+	/**
+	 * Drops the state ImageJ 1.x keeps for the calling thread: the image set by
+	 * {@link WindowManager#setTempCurrentImage(ImagePlus)} and the options set
+	 * by {@link Macro#setOptions(String)}. Threads that run one command after
+	 * another call this in between, so no command sees what the last one left.
+	 */
+	public static void resetThreadState() {
+		WindowManager.setTempCurrentImage(null);
+		Macro.setOptions(null);
+	}
+
 	/**
 	 * Gets the value of the specified variable, from the given macro
 	 * {@link Interpreter}.
@@ -985,6 +1014,405 @@ public class IJ1Helper extends AbstractContextual {
 		}
 	}
 
+	/**
+	 * Runs ImageJ 1.x macros from a cache of tokenized {@link Program}s.
+	 * <p>
+	 * {@link IJ#runMacro(String)} tokenizes its macro on every call. This cache
+	 * keeps the programs of the most recently run macros, keyed by their source
+	 * text (i.e., looked up by its hash and confirmed by equality), and runs them
+	 * the same way {@link ij.plugin.Macro_Runner} runs macro text.
+	 * </p>
+	 * <p>
+	 * A program is checked out of the cache while it runs, so concurrent runs of
+	 * the same macro never share one. Running a program from Java needs a few
+	 * private members of {@link Interpreter}; if those cannot be accessed,
+	 * {@link #isSupported()} returns false and macros should be run as text.
+	 * </p>
+	 */
+	private static final class MacroCache {
+
+		private static final Field ARGUMENT = MacroVariables.field(
+			Interpreter.class, "argument");
+		private static final Field CALLED_MACRO = MacroVariables.field(
+			Interpreter.class, "calledMacro");
+		private static final Field RETURN_VALUE = MacroVariables.field(
+			Interpreter.class, "returnValue");
+		private static final Field ADDITIONAL_FUNCTIONS = MacroVariables.field(
+			Interpreter.class, "additionalFunctions");
+		private static final Field HAS_VARS = MacroVariables.field(Program.class,
+			"hasVars");
+		private static final Field HAS_FUNCTIONS = MacroVariables.field(
+			Program.class, "hasFunctions");
+		private static final Method SAVE_GLOBALS = method(Interpreter.class,
+			"saveGlobals2", Program.class);
+
+		private final int capacity;
+
+		private final Map<String, Program> programs;
+
+		/**
+		 * Creates a cache holding up to the given number of programs. A capacity
+		 * of zero disables it.
+		 */
+		MacroCache(final int capacity) {
+			this.capacity = capacity;
+			programs = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(
+					final Map.Entry<String, Program> eldest)
+				{
+					return size() > MacroCache.this.capacity;
+				}
+			};
+		}
+
+		/** Whether macros can be run from this cache. */
+		boolean isSupported() {
+			return capacity > 0 && ARGUMENT != null && CALLED_MACRO != null &&
+				RETURN_VALUE != null && ADDITIONAL_FUNCTIONS != null &&
+				HAS_VARS != null && HAS_FUNCTIONS != null && SAVE_GLOBALS != null &&
+				MacroVariables.isSupported();
+		}
+
+		/**
+		 * Runs the given macro, tokenizing it only if it is not cached yet.
+		 *
+		 * @return the macro's return value, or {@code "[aborted]"}
+		 * @see IJ#runMacro(String)
+		 */
+		String run(final String macro) {
+			final String source = withAdditionalFunctions(macro);
+			Program program = checkOut(source);
+			if (program == null) program = new Tokenizer().tokenize(source);
+
+			final Interpreter interp = new Interpreter();
+			try {
+				ARGUMENT.set(interp, "");
+				CALLED_MACRO.setBoolean(interp, true);
+				if (HAS_VARS.getBoolean(program) && HAS_FUNCTIONS.getBoolean(program)) {
+					SAVE_GLOBALS.invoke(interp, program);
+				}
+				interp.run(program);
+				checkIn(source, program);
+				return (String) RETURN_VALUE.get(interp);
+			}
+			catch (final InvocationTargetException exc) {
+				return aborted(interp, exc.getCause());
+			}
+			catch (final Throwable t) {
+				return aborted(interp, t);
+			}
+		}
+
+		// -- Helper methods --
+
+		private synchronized Program checkOut(final String source) {
+			return programs.remove(source);
+		}
+
+		private synchronized void checkIn(final String source,
+			final Program program)
+		{
+			programs.put(source, program);
+		}
+
+		/** Appends the library functions, as {@link Interpreter} does. */
+		private String withAdditionalFunctions(final String macro) {
+			try {
+				final String functions = (String) ADDITIONAL_FUNCTIONS.get(null);
+				if (functions == null) return macro;
+				// NB - a line break only goes in between if neither side has one
+				if (macro.endsWith("\n") || functions.startsWith("\n")) {
+					return macro + functions;
+				}
+				return macro + "\n" + functions;
+			}
+			catch (final IllegalAccessException exc) {
+				return macro;
+			}
+		}
+
+		/** Cleans up after a failed macro, as {@link ij.plugin.Macro_Runner} does. */
+		private String aborted(final Interpreter interp, final Throwable t) {
+			interp.abortMacro();
+			IJ.showStatus("");
+			IJ.showProgress(1.0);
+			final ImagePlus imp = WindowManager.getCurrentImage();
+			if (imp != null) imp.unlock();
+			if (!(t instanceof RuntimeException) ||
+				!Macro.MACRO_CANCELED.equals(t.getMessage()))
+			{
+				IJ.handleException(t);
+			}
+			return "[aborted]";
+		}
+
+		private static Method method(final Class<?> c, final String name,
+			final Class<?>... parameterTypes)
+		{
+			try {
+				final Method m = c.getDeclaredMethod(name, parameterTypes);
+				m.setAccessible(true);
+				return m;
+			}
+			catch (final Exception exc) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Pushes Java values into a running ImageJ 1.x macro {@link Interpreter} as
+	 * {@link Variable}s, and pulls typed values back out, without going through
+	 * macro source code or string conversions.
+	 * <p>
+	 * The {@link Interpreter} does not offer a way to declare new variables, so
+	 * this class works on its variable stack directly. If the needed members
+	 * cannot be accessed, {@link #isSupported()} returns false.
+	 * </p>
+	 */
+	private static final class MacroVariables {
+
+		private static final Field STACK = field(Interpreter.class, "stack");
+		private static final Field TOP_OF_STACK = field(Interpreter.class,
+			"topOfStack");
+		private static final Field PROGRAM = field(Interpreter.class, "pgm");
+		private static final Field SYMBOLS = field(Program.class, "table");
+		private static final Field SYMBOL_INDEX = field(Variable.class,
+			"symTabIndex");
+		private static final Field SYMBOL_NAME = field("ij.macro.Symbol", "str");
+		private static final Field ARRAY_SIZE = field(Variable.class, "arraySize");
+
+		private MacroVariables() {
+			// prevent instantiation of utility class
+		}
+
+		/** Whether variables can be pushed on this version of ImageJ 1.x. */
+		static boolean isSupported() {
+			return STACK != null && TOP_OF_STACK != null && PROGRAM != null &&
+				SYMBOLS != null && SYMBOL_INDEX != null && SYMBOL_NAME != null;
+		}
+
+		/**
+		 * Defines the given variables in the current scope of the interpreter.
+		 * Variables which the running program never mentions are skipped, since
+		 * the macro could not refer to them anyway. A null value is defined as
+		 * {@code NaN}, so the macro can still test for it.
+		 */
+		static void push(final Interpreter interp, final Map<String, ?> variables) {
+			try {
+				final Program program = (Program) PROGRAM.get(interp);
+				final Object[] symbols = (Object[]) SYMBOLS.get(program);
+				for (final Entry<String, ?> entry : variables.entrySet()) {
+					final int index = symbolIndex(symbols, entry.getKey());
+					if (index < 0) continue;
+					final Variable variable = toVariable(entry.getValue(), true);
+					SYMBOL_INDEX.setInt(variable, index);
+					push(interp, variable);
+				}
+			}
+			catch (final IllegalAccessException exc) {
+				throw new IllegalStateException(exc);
+			}
+		}
+
+		/**
+		 * Gets the variables of the interpreter's current scope. Numbers are
+		 * returned as {@link Double}s and strings as {@link String}s. Arrays become
+		 * {@code double[]} or {@code String[]} if all their elements are numbers or
+		 * strings, respectively, and {@code Object[]} otherwise.
+		 */
+		static Map<String, Object> pull(final Interpreter interp) {
+			try {
+				final Program program = (Program) PROGRAM.get(interp);
+				final Object[] symbols = (Object[]) SYMBOLS.get(program);
+				final Variable[] stack = (Variable[]) STACK.get(interp);
+				final int top = TOP_OF_STACK.getInt(interp);
+				final Map<String, Object> variables = new LinkedHashMap<>();
+				for (int i = 0; i <= top; i++) {
+					final Variable variable = stack[i];
+					if (variable == null) continue;
+					final Object symbol = symbols[SYMBOL_INDEX.getInt(variable)];
+					if (symbol == null) continue;
+					variables.put((String) SYMBOL_NAME.get(symbol), toObject(variable));
+				}
+				return variables;
+			}
+			catch (final IllegalAccessException exc) {
+				throw new IllegalStateException(exc);
+			}
+		}
+
+		// -- Helper methods --
+
+		private static Object toObject(final Variable variable)
+			throws IllegalAccessException
+		{
+			final Variable[] array = variable.getArray();
+			if (array != null) return toArray(array, arraySize(variable, array));
+			final String str = variable.getString();
+			if (str != null) return str;
+			return variable.getValue();
+		}
+
+		private static Object toArray(final Variable[] array, final int size) {
+			boolean numbers = true, strings = true;
+			for (int i = 0; i < size; i++) {
+				if (array[i].getString() == null) strings = false;
+				else numbers = false;
+			}
+			if (numbers) {
+				final double[] values = new double[size];
+				for (int i = 0; i < size; i++) {
+					values[i] = array[i].getValue();
+				}
+				return values;
+			}
+			if (strings) {
+				final String[] values = new String[size];
+				for (int i = 0; i < size; i++) {
+					values[i] = array[i].getString();
+				}
+				return values;
+			}
+			final Object[] values = new Object[size];
+			for (int i = 0; i < size; i++) {
+				final String str = array[i].getString();
+				values[i] = str == null ? (Object) array[i].getValue() : str;
+			}
+			return values;
+		}
+
+		/** Gets the number of elements in use, which may be less than allocated. */
+		private static int arraySize(final Variable variable,
+			final Variable[] array) throws IllegalAccessException
+		{
+			if (ARRAY_SIZE == null) return array.length;
+			final int size = ARRAY_SIZE.getInt(variable);
+			return size > 0 && size < array.length ? size : array.length;
+		}
+
+		/**
+		 * Converts the given value as a macro would see it: numbers and booleans
+		 * become numbers, images their IDs, files their absolute paths and
+		 * one-dimensional arrays macro arrays. Anything else becomes a string.
+		 */
+		private static Variable toVariable(final Object value, final boolean top) {
+			if (value == null) return new Variable(Double.NaN);
+			if (top && value.getClass().isArray()) return toArrayVariable(value);
+			if (value instanceof ImagePlus) {
+				return new Variable(((ImagePlus) value).getID());
+			}
+			if (value instanceof File) {
+				return new Variable(((File) value).getAbsolutePath());
+			}
+			if (value instanceof Number) {
+				return new Variable(((Number) value).doubleValue());
+			}
+			if (value instanceof Boolean) {
+				return new Variable((Boolean) value ? 1 : 0);
+			}
+			return new Variable(value.toString());
+		}
+
+		/**
+		 * Converts a one-dimensional array to a macro array. Primitive arrays are
+		 * read without boxing their elements.
+		 */
+		private static Variable toArrayVariable(final Object array) {
+			if (array instanceof double[]) {
+				final double[] a = (double[]) array;
+				return numbers(a.length, i -> a[i]);
+			}
+			if (array instanceof float[]) {
+				final float[] a = (float[]) array;
+				return numbers(a.length, i -> a[i]);
+			}
+			if (array instanceof long[]) {
+				final long[] a = (long[]) array;
+				return numbers(a.length, i -> a[i]);
+			}
+			if (array instanceof int[]) {
+				final int[] a = (int[]) array;
+				return numbers(a.length, i -> a[i]);
+			}
+			if (array instanceof short[]) {
+				final short[] a = (short[]) array;
+				return numbers(a.length, i -> a[i]);
+			}
+			if (array instanceof byte[]) {
+				final byte[] a = (byte[]) array;
+				return numbers(a.length, i -> a[i]);
+			}
+			if (array instanceof boolean[]) {
+				final boolean[] a = (boolean[]) array;
+				return numbers(a.length, i -> a[i] ? 1 : 0);
+			}
+			// NB: ImageJ 1.x only supports 1-dimensional arrays.
+			final Variable[] elements = new Variable[Array.getLength(array)];
+			for (int i = 0; i < elements.length; i++) {
+				elements[i] = toVariable(Array.get(array, i), false);
+			}
+			return new Variable(elements);
+		}
+
+		private static Variable numbers(final int length,
+			final IntToDoubleFunction values)
+		{
+			final Variable[] elements = new Variable[length];
+			for (int i = 0; i < length; i++) {
+				elements[i] = new Variable(values.applyAsDouble(i));
+			}
+			return new Variable(elements);
+		}
+
+		private static void push(final Interpreter interp, final Variable variable)
+			throws IllegalAccessException
+		{
+			Variable[] stack = (Variable[]) STACK.get(interp);
+			final int top = TOP_OF_STACK.getInt(interp) + 1;
+			if (top >= stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+				STACK.set(interp, stack);
+			}
+			stack[top] = variable;
+			TOP_OF_STACK.setInt(interp, top);
+		}
+
+		private static int symbolIndex(final Object[] symbols, final String name)
+			throws IllegalAccessException
+		{
+			for (int i = 0; i < symbols.length; i++) {
+				if (symbols[i] != null && name.equals(SYMBOL_NAME.get(symbols[i]))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static Field field(final String className, final String name) {
+			try {
+				return field(Class.forName(className, false, Interpreter.class
+					.getClassLoader()), name);
+			}
+			catch (final ClassNotFoundException exc) {
+				return null;
+			}
+		}
+
+		static Field field(final Class<?> c, final String name) {
+			try {
+				final Field f = c.getDeclaredField(name);
+				f.setAccessible(true);
+				return f;
+			}
+			catch (final Exception exc) {
+				return null;
+			}
+		}
+	}
+
 	private <T> T runMacroFriendly(final Callable<T> call) {
 		if (EventQueue.isDispatchThread()) {
 			throw new IllegalStateException("Cannot run macro from the EDT!");
@@ -1054,6 +1482,63 @@ public class IJ1Helper extends AbstractContextual {
 		});
 	}
 
+	/**
+	 * Whether {@link #runCompiledMacro(String)} and
+	 * {@link #setVariables(Object, Map)} are available.
+	 */
+	public boolean canRunCompiledMacros() {
+		return macroCache.isSupported();
+	}
+
+	/**
+	 * Evaluates the specified macro like {@link #runMacro(String)}, but reuses
+	 * its tokenized form if the same macro was run recently.
+	 *
+	 * @param macro the macro to evaluate
+	 * @return the return value
+	 * @see #canRunCompiledMacros()
+	 */
+	public String runCompiledMacro(final String macro) {
+		return runMacroFriendly(new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				return macroCache.run(macro);
+			}
+		});
+	}
+
+	/**
+	 * Defines variables in the given, running macro {@link Interpreter},
+	 * without going through macro source code.
+	 *
+	 * @param interpreter The macro {@link Interpreter} to modify.
+	 * @param variables The variables to define, by name.
+	 * @throws ClassCastException if the given interpreter is not an
+	 *           {@link Interpreter}.
+	 * @see #canRunCompiledMacros()
+	 */
+	public void setVariables(final Object interpreter,
+		final Map<String, ?> variables)
+	{
+		MacroVariables.push((Interpreter) interpreter, variables);
+	}
+
+	/**
+	 * Gets the variables of the given macro {@link Interpreter} as typed
+	 * values, without converting them to and from strings.
+	 *
+	 * @param interpreter The macro {@link Interpreter} to query.
+	 * @return The variables by name: {@link Double}s, {@link String}s, and
+	 *         {@code double[]}, {@code String[]} or {@code Object[]} arrays.
+	 * @throws ClassCastException if the given interpreter is not an
+	 *           {@link Interpreter}.
+	 * @see #canRunCompiledMacros()
+	 */
+	public Map<String, Object> getVariableValues(final Object interpreter) {
+		return MacroVariables.pull((Interpreter) interpreter);
+	}
+
 	/**
 	 * Evaluates the specified macro.
 	 *
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A table of read/write locks, one per image, that lets legacy commands
+ * working on disjoint images run at the same time. An image is any object
+ * identifying one, typically an {@link net.imagej.display.ImageDisplay}.
+ * <p>
+ * {@link #acquire(Collection, Collection)} takes the locks of several images
+ * in one go. It always takes them in the same global order, so two callers
+ * with overlapping image sets can not deadlock each other.
+ * </p>
+ * <p>
+ * Callers that may touch any image, without knowing which beforehand, take
+ * {@link #acquireAll()} instead. It waits for all per-image holders to finish
+ * and keeps new ones out until it is released.
+ * </p>
+ */
+public class ImageLocks {
+
+	// -- instance variables --
+
+	private final Map<Object, OrderedLock> locks =
+		Collections.synchronizedMap(new WeakHashMap<Object, OrderedLock>());
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Shared by every {@link #acquire(Collection, Collection)} caller, and held
+	 * exclusively by {@link #acquireAll()}.
+	 */
+	private final ReentrantReadWriteLock all = new ReentrantReadWriteLock();
+
+	// -- ImageLocks methods --
+
+	/** Gets the read/write lock of the given image. */
+	public ReentrantReadWriteLock get(final Object image) {
+		return lock(image);
+	}
+
+	/**
+	 * Takes the read locks of the given images and the write locks of the
+	 * given written images, waiting as long as necessary. An image that is both
+	 * read and written is write locked.
+	 * 
+	 * @param reads The images to read lock, or null
+	 * @param writes The images to write lock, or null
+	 * @return The held locks, to be released by {@link Held#close()}
+	 * @throws InterruptedException if interrupted while waiting; no locks are
+	 *           held then
+	 */
+	public Held acquire(final Collection<?> reads, final Collection<?> writes)
+		throws InterruptedException
+	{
+		final Map<Object, Boolean> wanted = new IdentityHashMap<>();
+		if (reads != null) {
+			for (final Object image : reads) {
+				if (image != null) wanted.put(image, false);
+			}
+		}
+		if (writes != null) {
+			for (final Object image : writes) {
+				if (image != null) wanted.put(image, true);
+			}
+		}
+		final List<OrderedLock> ordered = new ArrayList<>();
+		final Map<OrderedLock, Boolean> writing = new IdentityHashMap<>();
+		for (final Map.Entry<Object, Boolean> entry : wanted.entrySet()) {
+			final OrderedLock lock = lock(entry.getKey());
+			ordered.add(lock);
+			writing.put(lock, entry.getValue());
+		}
+		ordered.sort(Comparator.comparingLong(lock -> lock.order));
+
+		final Held held = new Held();
+		try {
+			take(held, all.readLock());
+			for (final OrderedLock lock : ordered) {
+				take(held, writing.get(lock) ? lock.writeLock() : lock.readLock());
+			}
+		}
+		catch (final InterruptedException exc) {
+			held.close();
+			throw exc;
+		}
+		return held;
+	}
+
+	/**
+	 * Takes the lock on all images at once, waiting until no image is locked by
+	 * {@link #acquire(Collection, Collection)} any more.
+	 * 
+	 * @return The held lock, to be released by {@link Held#close()}
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Held acquireAll() throws InterruptedException {
+		final Held held = new Held();
+		take(held, all.writeLock());
+		return held;
+	}
+
+	// -- Helper methods --
+
+	private static void take(final Held held, final Lock lock)
+		throws InterruptedException
+	{
+		lock.lockInterruptibly();
+		held.locks.add(lock);
+	}
+
+	private OrderedLock lock(final Object image) {
+		synchronized (locks) {
+			OrderedLock lock = locks.get(image);
+			if (lock == null) {
+				lock = new OrderedLock(sequence.incrementAndGet());
+				locks.put(image, lock);
+			}
+			return lock;
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A read/write lock with its place in the global locking order. */
+	private static class OrderedLock extends ReentrantReadWriteLock {
+
+		private final long order;
+
+		public OrderedLock(final long order) {
+			this.order = order;
+		}
+	}
+
+	/**
+	 * A set of locks taken by {@link #acquire(Collection, Collection)} or
+	 * {@link #acquireAll()}.
+	 */
+	public static class Held implements AutoCloseable {
+
+		private final List<Lock> locks = new ArrayList<>();
+
+		/** Releases the locks, in the opposite order they were taken. */
+		@Override
+		public void close() {
+			for (int i = locks.size() - 1; i >= 0; i--) {
+				locks.get(i).unlock();
+			}
+			locks.clear();
+		}
+	}
+
+}
@@ -36,18 +36,19 @@ import ij.WindowManager;
 import ij.gui.ImageWindow;
 import ij.gui.Roi;
 
-import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 import net.imagej.Data;
 import net.imagej.Dataset;
 import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
 import net.imagej.legacy.translate.DefaultImageTranslator;
+import net.imagej.legacy.translate.DisplaySyncTracker;
 import net.imagej.legacy.translate.Harmonizer;
 import net.imagej.legacy.translate.ImageTranslator;
 import net.imagej.legacy.translate.LegacyUtils;
@@ -56,12 +57,14 @@ import net.imagej.patcher.LegacyInjector;
 import net.imagej.ui.viewer.image.ImageDisplayViewer;
 
 import org.scijava.AbstractContextual;
+import org.scijava.app.StatusService;
 import org.scijava.display.Display;
 import org.scijava.display.DisplayService;
 import org.scijava.display.event.DisplayDeletedEvent;
 import org.scijava.display.event.DisplayUpdatedEvent;
 import org.scijava.event.EventHandler;
 import org.scijava.plugin.Parameter;
+import org.scijava.thread.ThreadService;
 import org.scijava.ui.viewer.DisplayWindow;
 
 /**
@@ -94,6 +97,30 @@ public class LegacyImageMap extends AbstractContextual {
 	 */
 	public static final String IMP_KEY = "ij1-image-plus";
 
+	/**
+	 * System property that makes switching to legacy mode lazy; see
+	 * {@link #toggleLegacyMode(boolean)}.
+	 */
+	public static final String LAZY_TOGGLE_PROPERTY =
+		"imagej.legacy.lazyModeSwitch";
+
+	/**
+	 * System property holding how many milliseconds an {@link ImagePlus} redraw
+	 * requested by a {@link DisplayUpdatedEvent} may wait for further updates
+	 * of the same display to merge with. Defaults to zero, which redraws
+	 * synchronously on every event; roughly a frame (16) merges bursts of
+	 * updates, at the price of redrawing asynchronously.
+	 */
+	public static final String UPDATE_LATENCY_PROPERTY =
+		"imagej.legacy.updateLatency";
+
+	/**
+	 * System property holding how many displays are redrawn at most per
+	 * latency interval. Defaults to no limit.
+	 */
+	public static final String UPDATE_BATCH_PROPERTY =
+		"imagej.legacy.updateBatchSize";
+
 	static {
 		/*
 		 * We absolutely require that the LegacyInjector did its job before we
@@ -111,43 +138,45 @@ public class LegacyImageMap extends AbstractContextual {
 	// -- Fields --
 
 	/**
-	 * Table of shadowing {@link ImagePlus} objects corresponding to
-	 * {@link ImageDisplay}s created in modern mode. This table should not be used
-	 * to track {@code ImagePlus} instances created in legacy mode - instead, use
-	 * {@link #legacyImagePlusTable}.
+	 * Index between {@link ImagePlus}es and their shadowing
+	 * {@link ImageDisplay}s. Mappings made in modern mode hold their
+	 * {@code ImagePlus} strongly. Mappings made in legacy mode hold it weakly, so
+	 * the mapping - and with it the hard reference to the {@code ImageDisplay} -
+	 * goes away when the {@code ImagePlus} is garbage collected. The index also
+	 * tracks {@code ImagePlus}es whose display is still being created.
 	 */
-	private final Map<ImageDisplay, ImagePlus> imagePlusTable;
+	private final WeakIdentityIndex<ImagePlus, ImageDisplay> index =
+		new WeakIdentityIndex<>();
 
 	/**
-	 * Table of {@link ImageDisplay} objects created in modern mode corresponding
-	 * to shadowing {@link ImagePlus}es. This table should not be used to track
-	 * {@code ImagePlus} instances created in legacy mode - instead, use
-	 * {@link #legacyDisplayTable}.
+	 * {@link ImageDisplay}s whose {@link ImagePlus} was not yet brought up to
+	 * date after a lazy switch to legacy mode.
 	 */
-	private final Map<ImagePlus, ImageDisplay> displayTable;
+	private final Set<ImageDisplay> pending = Collections.newSetFromMap(
+		Collections.synchronizedMap(new IdentityHashMap<ImageDisplay, Boolean>()));
 
-	/**
-	 * A mapping of {@link ImagePlus} instances created in legacy mode to
-	 * shadowing {@link ImageDisplay} instances. Uses a {@link WeakHashMap} so any
-	 * {@code ImageDisplays} are disposed when the {@code ImagePlus} key is
-	 * garbage collected - but maintains hard references to the
-	 * {@code ImageDisplay}s otherwise.
-	 */
-	private final Map<ImagePlus, ImageDisplay> legacyDisplayTable =
-		new WeakHashMap<>();
+	/** Serializes the migration of {@link #pending} displays. */
+	private final Object migrationLock = new Object();
+
+	/** The display being migrated, guarded by {@link #migrationLock}. */
+	private ImageDisplay migrating;
+
+	/** Harmonizer of the lazy switch, guarded by {@link #migrationLock}. */
+	private Harmonizer pendingHarmonizer;
+
+	/** Counts lazy switches, so a stale background thread can tell it is. */
+	private int migrationGeneration;
 
 	/**
-	 * Legacy mode mapping of {@link ImageDisplay}s to {@link ImagePlus}es. Uses
-	 * {@link WeakReference}s for both keys and values.
+	 * Merges the redraws requested by bursts of {@link DisplayUpdatedEvent}s.
 	 */
-	private final Map<ImageDisplay, WeakReference<ImagePlus>> legacyImagePlusTable =
-		new WeakHashMap<>();
+	private final CoalescingScheduler<ImageDisplay> updateScheduler;
 
 	/**
-	 * Effectively a {@code WeakHashSet} for tracking known {@link ImagePlus}es.
+	 * Read/write locks of the {@link ImageDisplay}s, for legacy commands that
+	 * run concurrently.
 	 */
-	private final Map<ImagePlus, Object> imagePluses =
-		new WeakHashMap<>();
+	private final ImageLocks imageLocks = new ImageLocks();
 
 	/**
 	 * The {@link ImageTranslator} to use when creating {@link ImagePlus} and
@@ -155,6 +184,12 @@ public class LegacyImageMap extends AbstractContextual {
 	 */
 	private final DefaultImageTranslator imageTranslator;
 
+	/**
+	 * Tracks which {@link ImageDisplay}s changed since they were last harmonized
+	 * with their {@link ImagePlus}.
+	 */
+	private final DisplaySyncTracker syncTracker;
+
 	/**
 	 * The legacy service corresponding to this image map.
 	 */
@@ -171,9 +206,11 @@ public class LegacyImageMap extends AbstractContextual {
 	public LegacyImageMap(final LegacyService legacyService) {
 		setContext(legacyService.getContext());
 		this.legacyService = legacyService;
-		imagePlusTable = new ConcurrentHashMap<>();
-		displayTable = new ConcurrentHashMap<>();
 		imageTranslator = new DefaultImageTranslator(legacyService);
+		syncTracker = new DisplaySyncTracker(legacyService.getContext());
+		updateScheduler = new CoalescingScheduler<>( //
+			Long.getLong(UPDATE_LATENCY_PROPERTY, 0), //
+			Integer.getInteger(UPDATE_BATCH_PROPERTY, 0), legacyService.log());
 	}
 
 	// -- LegacyImageMap methods --
@@ -184,22 +221,49 @@ public class LegacyImageMap extends AbstractContextual {
 	 */
 	public ImageDisplay lookupDisplay(final ImagePlus imp) {
 		if (imp == null) return null;
-		if (legacyService.isLegacyMode()) return legacyDisplayTable.get(imp);
-		return displayTable.get(imp);
+		return index.get(imp);
 	}
 
 	/**
 	 * Gets the {@link ImagePlus} corresponding to the given {@link ImageDisplay},
-	 * or null if there is no existing table entry.
+	 * or null if there is no existing table entry. If the display is still
+	 * pending after a lazy switch to legacy mode it is harmonized first.
 	 */
 	public ImagePlus lookupImagePlus(final ImageDisplay display) {
 		if (display == null) return null;
-		if (legacyService.isLegacyMode()) {
-			final WeakReference<ImagePlus> weakReference =
-				legacyImagePlusTable.get(display);
-			return weakReference == null ? null : weakReference.get();
-		}
-		return imagePlusTable.get(display);
+		migratePending(display);
+		return index.getKey(display);
+	}
+
+	/**
+	 * Gets the {@link DisplaySyncTracker} that records which
+	 * {@link ImageDisplay}s changed since they were last harmonized.
+	 */
+	public DisplaySyncTracker getSyncTracker() {
+		return syncTracker;
+	}
+
+	/**
+	 * Gets the {@link CoalescingScheduler} that redraws {@link ImagePlus}es
+	 * after their {@link ImageDisplay} was updated, e.g. to read how many
+	 * redraws were merged.
+	 */
+	public CoalescingScheduler<ImageDisplay> getUpdateScheduler() {
+		return updateScheduler;
+	}
+
+	/**
+	 * Gets the per {@link ImageDisplay} read/write locks that legacy commands
+	 * running concurrently hold while they use a display and its
+	 * {@link ImagePlus}.
+	 */
+	public ImageLocks getImageLocks() {
+		return imageLocks;
+	}
+
+	/** Stops redrawing {@link ImagePlus}es in the background. */
+	public void dispose() {
+		updateScheduler.dispose();
 	}
 
 	/**
@@ -239,8 +303,8 @@ public class LegacyImageMap extends AbstractContextual {
 	}
 
 	/**
-	 * As {@link #registerDisplay(ImageDisplay)} but mappings will go in legacy
-	 * maps if {@code createLegacyMappings} is true.
+	 * As {@link #registerDisplay(ImageDisplay)} but the mapping will hold the
+	 * {@link ImagePlus} weakly if {@code createLegacyMappings} is true.
 	 */
 	public ImagePlus registerDisplay(final ImageDisplay display,
 		final boolean createLegacyMappings)
@@ -267,8 +331,7 @@ public class LegacyImageMap extends AbstractContextual {
 		// It is possible that this method can get hit multiple times from the
 		// display that is being created by the imageTranslator. Thus we want to
 		// avoid an infinite loop.
-		if (display == null && !imagePluses.containsKey(imp)) {
-			imagePluses.put(imp, null);
+		if (display == null && index.reserve(imp)) {
 			// mapping does not exist; mirror legacy image to display
 			display = imageTranslator.createDisplay(imp);
 			addMapping(display, imp);
@@ -280,60 +343,58 @@ public class LegacyImageMap extends AbstractContextual {
 		return display;
 	}
 
+	/**
+	 * Updates the mappings after switching to or from legacy mode. On entering
+	 * legacy mode every {@link ImageDisplay} gets an up to date
+	 * {@link ImagePlus}; on leaving it every {@code ImagePlus} still open is
+	 * copied back into its {@code ImageDisplay}.
+	 * <p>
+	 * If the {@link #LAZY_TOGGLE_PROPERTY} system property is true, entering
+	 * legacy mode only marks the displays as pending. Each pending display is
+	 * then harmonized the first time its {@code ImagePlus} is looked up, or by
+	 * a background thread that works through them, the active display first,
+	 * reporting its progress through the {@link StatusService}.
+	 * </p>
+	 */
 	public synchronized void toggleLegacyMode(boolean enteringLegacyMode) {
 		final Harmonizer harmonizer =
 			new Harmonizer(legacyService.getContext(), imageTranslator);
 		if (enteringLegacyMode) {
-			// migrate from the ImagePlusTable and DisplayTable to legacy versions.
+			// existing mappings carry over; only unmapped displays need an ImagePlus
 			final List<ImageDisplay> imageDisplays =
 					imageDisplayService.getImageDisplays();
+			// legacy mode mappings live only as long as their ImagePlus
+			index.holdAll(true);
+			if (Boolean.getBoolean(LAZY_TOGGLE_PROPERTY)) {
+				migrateLazily(imageDisplays, harmonizer);
+				return;
+			}
 			// TODO: this is almost exactly what LegacyCommand does, so it is
 			// pretty obvious that it is misplaced in there.
 			for (final ImageDisplay display : imageDisplays) {
-				ImagePlus imp = lookupImagePlus(display);
-				if (imp == null) {
-					final Dataset ds = imageDisplayService.getActiveDataset(display);
-					if (LegacyUtils.dimensionsIJ1Compatible(ds)) {
-						// Ensure the mappings are registered in the legacy maps
-						imp = registerDisplay(display, true);
-						final ImageDisplayViewer viewer =
-								(ImageDisplayViewer) legacyService.uiService().getDisplayViewer(display);
-						if (viewer != null) {
-							final DisplayWindow window = viewer.getWindow();
-							if (window != null) window.showDisplay(!enteringLegacyMode);
-						}
-					}
-				}
-				else {
-					imp.unlock();
-				}
-				harmonizer.updateLegacyImage(display, imp);
-				harmonizer.registerType(imp);
+				migrate(display, harmonizer);
 			}
-			imagePlusTable.clear();
-			displayTable.clear();
 		}
 		else {
-			// migrate from legacyImagePlusTable and legacyDisplayTable to modern
-			// versions.
-			for (final ImagePlus imp : legacyDisplayTable.keySet()) {
+			final Collection<ImageDisplay> unchanged = cancelMigration();
+			for (final ImagePlus imp : index.keys()) {
 				final ImageWindow window = imp.getWindow();
-				final ImageDisplay display = legacyDisplayTable.get(imp);
+				final ImageDisplay display = index.get(imp);
+				if (display == null) continue;
 				if (window == null || window.isClosed()) {
 					// This ImagePlus was closed, so we can remove it from our mappings
 					unregisterLegacyImage(imp);
 					display.close();
 				}
 				else {
-					// transfer mappings to modern maps with hard references
-					displayTable.put(imp, display);
-					imagePlusTable.put(display, imp);
+					// keep the mapping with a hard reference from now on
+					index.hold(imp, false);
+					// a display that was never harmonized is still up to date
+					if (unchanged.contains(display)) continue;
 					// Update the display
 					harmonizer.updateDisplay(display, imp);
 				}
 			}
-			legacyDisplayTable.clear();
-			legacyImagePlusTable.clear();
 		}
 	}
 
@@ -352,6 +413,8 @@ public class LegacyImageMap extends AbstractContextual {
 	 * delete the associated {@link ImagePlus}.
 	 */
 	public void unregisterDisplay(final ImageDisplay display, final boolean deleteImp) {
+		// NB - no point in harmonizing a display on its way out
+		pending.remove(display);
 		final ImagePlus imp = lookupImagePlus(display);
 		removeMapping(display, imp, deleteImp);
 	}
@@ -372,10 +435,7 @@ public class LegacyImageMap extends AbstractContextual {
 	 *         {@link ImagePlus} instances.
 	 */
 	public Collection<ImageDisplay> getImageDisplays() {
-		if (legacyService.isLegacyMode()) {
-			return legacyDisplayTable.values();
-		}
-		return imagePlusTable.keySet();
+		return index.values();
 	}
 
 	/**
@@ -385,14 +445,111 @@ public class LegacyImageMap extends AbstractContextual {
 	 *         {@link ImageDisplay} instances.
 	 */
 	public Collection<ImagePlus> getImagePlusInstances() {
-		if (legacyService.isLegacyMode()) {
-			return legacyDisplayTable.keySet();
-		}
-		return displayTable.keySet();
+		return index.keys();
 	}
 
 	// -- Helper methods --
 
+	/**
+	 * Brings the {@link ImagePlus} of the given {@link ImageDisplay} up to date
+	 * for legacy mode, creating it if necessary.
+	 */
+	private void migrate(final ImageDisplay display, final Harmonizer harmonizer)
+	{
+		ImagePlus imp = lookupImagePlus(display);
+		if (imp == null) {
+			final Dataset ds = imageDisplayService.getActiveDataset(display);
+			if (LegacyUtils.dimensionsIJ1Compatible(ds)) {
+				// Ensure the mapping is registered the way legacy mode holds it
+				imp = registerDisplay(display, true);
+				final ImageDisplayViewer viewer =
+						(ImageDisplayViewer) legacyService.uiService().getDisplayViewer(display);
+				if (viewer != null) {
+					final DisplayWindow window = viewer.getWindow();
+					if (window != null) window.showDisplay(false);
+				}
+			}
+		}
+		else {
+			imp.unlock();
+		}
+		harmonizer.updateLegacyImage(display, imp);
+		harmonizer.registerType(imp);
+	}
+
+	/**
+	 * Marks the given displays as pending and starts a background thread that
+	 * migrates them, the active display first.
+	 */
+	private void migrateLazily(final List<ImageDisplay> imageDisplays,
+		final Harmonizer harmonizer)
+	{
+		final List<ImageDisplay> order = new ArrayList<>(imageDisplays);
+		final ImageDisplay active = imageDisplayService.getActiveImageDisplay();
+		if (active != null && order.remove(active)) order.add(0, active);
+		final int generation;
+		synchronized (migrationLock) {
+			pending.addAll(order);
+			pendingHarmonizer = harmonizer;
+			generation = ++migrationGeneration;
+		}
+		final ThreadService threadService =
+			legacyService.getContext().getService(ThreadService.class);
+		if (threadService == null) return; // migrate on lookup only
+		threadService.run(() -> {
+			final StatusService status = legacyService.status();
+			final int total = order.size();
+			int done = 0;
+			for (final ImageDisplay display : order) {
+				synchronized (migrationLock) {
+					if (generation != migrationGeneration) return;
+				}
+				migratePending(display);
+				if (status != null) {
+					status.showStatus(++done, total, "Switching to legacy mode: " +
+						done + "/" + total);
+				}
+			}
+			if (status != null) status.clearStatus();
+		});
+	}
+
+	/**
+	 * Migrates the given display if it is still pending. Blocks while another
+	 * thread migrates a display, so that nobody sees a half harmonized
+	 * {@link ImagePlus}.
+	 */
+	private void migratePending(final ImageDisplay display) {
+		if (pending.isEmpty()) return;
+		synchronized (migrationLock) {
+			// NB - migrating looks the display up again; do not recurse
+			if (display == migrating || !pending.contains(display)) return;
+			migrating = display;
+			try {
+				migrate(display, pendingHarmonizer);
+			}
+			finally {
+				migrating = null;
+				pending.remove(display);
+			}
+		}
+	}
+
+	/**
+	 * Stops migrating pending displays.
+	 * 
+	 * @return the displays that were never migrated
+	 */
+	private Collection<ImageDisplay> cancelMigration() {
+		synchronized (migrationLock) {
+			migrationGeneration++;
+			pendingHarmonizer = null;
+			final Collection<ImageDisplay> unchanged = new ArrayList<>(pending);
+			pending.clear();
+			return unchanged;
+		}
+	}
+
 	/**
 	 * Creates a mapping between a given {@link ImageDisplay} and
 	 * {@link ImagePlus}.
@@ -403,8 +560,8 @@ public class LegacyImageMap extends AbstractContextual {
 
 	/**
 	 * Creates a mapping between a given {@link ImageDisplay} and
-	 * {@link ImagePlus}. If {@code createLegacyMappings} is true, the mappings
-	 * will be added to the leagcy mode maps.
+	 * {@link ImagePlus}. If {@code createLegacyMappings} is true, the mapping
+	 * holds the {@code ImagePlus} weakly, as legacy mode mappings do.
 	 */
 	private void addMapping(final ImageDisplay display, final ImagePlus imp,
 		final boolean createLegacyMappings)
@@ -412,25 +569,10 @@ public class LegacyImageMap extends AbstractContextual {
 		// System.out.println("CREATE MAPPING "+display+" to "+imp+
 		// " isComposite()="+imp.isComposite());
 
-		// Must remove old mappings to avoid memory leaks
-		// Removal is tricky for the displayTable. Without removal different
-		// ImagePluses and CompositeImages can point to the same ImageDisplay. To
-		// avoid a memory leak and to stay consistent in our mappings we find
-		// all current mappings and remove them before inserting new ones. This
-		// ensures that a ImageDisplay is only linked with one ImagePlus or
-		// CompositeImage.
-		if (createLegacyMappings) {
-			final ImageDisplay toRemove = legacyDisplayTable.remove(imp);
-			if (toRemove != null) legacyImagePlusTable.remove(toRemove);
-			legacyDisplayTable.put(imp, display);
-			legacyImagePlusTable.put(display, new WeakReference<>(imp));
-		}
-		else {
-			final ImagePlus toRemove = imagePlusTable.remove(display);
-			if (toRemove != null) displayTable.remove(toRemove);
-			imagePlusTable.put(display, imp);
-			displayTable.put(imp, display);
-		}
+		// Must remove old mappings to avoid memory leaks. The index drops any
+		// mapping that either side was part of, which ensures that an
+		// ImageDisplay is only linked with one ImagePlus or CompositeImage.
+		index.put(imp, display, createLegacyMappings);
 
 		clearImagePlusKey(display);
 	}
@@ -455,14 +597,14 @@ public class LegacyImageMap extends AbstractContextual {
 		// System.out.println("REMOVE MAPPING "+display+" to "+imp+
 		// " isComposite()="+imp.isComposite());
 
-		if (display != null) {
-			imagePlusTable.remove(display);
-			legacyImagePlusTable.remove(display);
-		}
+		if (display != null) index.removeValue(display);
 		if (imp != null) {
-			displayTable.remove(imp);
-			legacyDisplayTable.remove(imp);
-			imagePluses.remove(imp);
+			index.removeKey(imp);
+			// an ImagePlus without an open window is gone with its mapping
+			final ImageWindow window = imp.getWindow();
+			if (deleteImp || window == null || window.isClosed()) {
+				LegacyUtils.disposeStack(imp);
+			}
 			if (deleteImp) LegacyUtils.deleteImagePlus(imp);
 			else {
 				final ImagePlus currImagePlus = WindowManager.getCurrentImage();
@@ -504,14 +646,19 @@ public class LegacyImageMap extends AbstractContextual {
 
 	/**
 	 * Check if updated display is an {@link ImageDisplay} with a mapped
-	 * {@link ImagePlus}. If so, call {@link ImagePlus#updateAndDraw()}.
+	 * {@link ImagePlus}. If so, schedule a call to
+	 * {@link ImagePlus#updateAndDraw()}; updates arriving before it runs are
+	 * merged into it.
 	 */
 	@EventHandler
 	private void onEvent(final DisplayUpdatedEvent event) {
 		final Display<?> display = event.getDisplay();
 		if (display instanceof ImageDisplay) {
-			final ImagePlus mappedImagePlus = lookupImagePlus((ImageDisplay) event.getDisplay());
-			if (mappedImagePlus != null) mappedImagePlus.updateAndDraw();
+			final ImageDisplay imageDisplay = (ImageDisplay) display;
+			updateScheduler.submit(imageDisplay, () -> {
+				final ImagePlus mappedImagePlus = lookupImagePlus(imageDisplay);
+				if (mappedImagePlus != null) mappedImagePlus.updateAndDraw();
+			});
 		}
 	}
 }
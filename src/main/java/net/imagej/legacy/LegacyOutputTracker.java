@@ -33,11 +33,12 @@ package net.imagej.legacy;
 
 import ij.ImagePlus;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.imagej.legacy.command.LegacyCommand;
+import net.imagej.legacy.command.LegacyThreadGroup;
 
 /**
  * <p>
@@ -47,7 +48,9 @@ import net.imagej.legacy.command.LegacyCommand;
  * whose window has closed.
  * <p>
  * The design maintains a pair of lists for each running {@link LegacyCommand}.
- * This is done by {@link ThreadGroup} rather than by {@link Thread}.
+ * This is done by {@link ThreadGroup} rather than by {@link Thread}: each
+ * {@link LegacyThreadGroup} carries its own {@link GroupTracker}, which is
+ * cleared whenever a command run in the group is done.
  * 
  * @author Curtis Rueden
  * @author Barry DeZonia
@@ -59,13 +62,6 @@ public class LegacyOutputTracker {
 
 	// -- static variables --
 
-	/**
-	 * Tracks the tracker associated with each {@link LegacyCommand}'s
-	 * {@link ThreadGroup}.
-	 */
-	private static HashMap<ThreadGroup, DefaultOutputTracker> trackers =
-		new HashMap<>();
-
 	private static OutputTracker nullTracker = new NullOutputTracker();
 	
 	// -- public static interface --
@@ -77,7 +73,7 @@ public class LegacyOutputTracker {
 	 * all the threads associated with a single {@link LegacyCommand}. This code
 	 * is thread safe.
 	 */
-	public static synchronized ImagePlus[] getOutputs() {
+	public static ImagePlus[] getOutputs() {
 		return getTracker().getOutputs();
 	}
 
@@ -86,7 +82,7 @@ public class LegacyOutputTracker {
 	 * associated with {@link ThreadGroup}s hatched by {@link LegacyCommand}s.
 	 * This code is thread safe.
 	 */
-	public static synchronized void addOutput(ImagePlus imp) {
+	public static void addOutput(ImagePlus imp) {
 		getTracker().addOutput(imp);
 	}
 
@@ -95,7 +91,7 @@ public class LegacyOutputTracker {
 	 * associated with {@link ThreadGroup}s hatched by {@link LegacyCommand}s.
 	 * This code is thread safe.
 	 */
-	public static synchronized void removeOutput(ImagePlus imp) {
+	public static void removeOutput(ImagePlus imp) {
 		getTracker().removeOutput(imp);
 	}
 
@@ -103,7 +99,7 @@ public class LegacyOutputTracker {
 	 * Return true if the current output list contains the given {@link ImagePlus}
 	 * . This code is thread safe.
 	 */
-	public static synchronized boolean containsOutput(ImagePlus imp) {
+	public static boolean containsOutput(ImagePlus imp) {
 		return getTracker().containsOutput(imp);
 	}
 
@@ -111,7 +107,7 @@ public class LegacyOutputTracker {
 	 * Clears the list of {@link ImagePlus}es stored in the current output list.
 	 * This code is thread safe.
 	 */
-	public static synchronized void clearOutputs() {
+	public static void clearOutputs() {
 		getTracker().clearOutputs();
 	}
 
@@ -122,7 +118,7 @@ public class LegacyOutputTracker {
 	 * all the threads associated with a single {@link LegacyCommand}. This code
 	 * is thread safe.
 	 */
-	public static synchronized ImagePlus[] getClosed() {
+	public static ImagePlus[] getClosed() {
 		return getTracker().getClosed();
 	}
 
@@ -131,7 +127,7 @@ public class LegacyOutputTracker {
 	 * associated with {@link ThreadGroup}s hatched by {@link LegacyCommand}s.
 	 * This code is thread safe.
 	 */
-	public static synchronized void addClosed(ImagePlus imp) {
+	public static void addClosed(ImagePlus imp) {
 		getTracker().addClosed(imp);
 	}
 
@@ -140,7 +136,7 @@ public class LegacyOutputTracker {
 	 * associated with {@link ThreadGroup}s hatched by {@link LegacyCommand}s.
 	 * This code is thread safe.
 	 */
-	public static synchronized void removeClosed(ImagePlus imp) {
+	public static void removeClosed(ImagePlus imp) {
 		getTracker().removeClosed(imp);
 	}
 
@@ -148,7 +144,7 @@ public class LegacyOutputTracker {
 	 * Return true if the current closed list contains the given {@link ImagePlus}
 	 * . This code is thread safe.
 	 */
-	public static synchronized boolean containsClosed(ImagePlus imp) {
+	public static boolean containsClosed(ImagePlus imp) {
 		return getTracker().containsClosed(imp);
 	}
 
@@ -156,21 +152,17 @@ public class LegacyOutputTracker {
 	 * Clears the list of {@link ImagePlus}es stored in the current closed list.
 	 * This code is thread safe.
 	 */
-	public static synchronized void clearClosed() {
+	public static void clearClosed() {
 		getTracker().clearClosed();
 	}
 
 	// -- helpers --
 
 	private static OutputTracker getTracker() {
-		ThreadGroup group = Utils.findLegacyThreadGroup(Thread.currentThread());
+		final LegacyThreadGroup group =
+			Utils.findLegacyThreadGroup(Thread.currentThread());
 		if (group == null) return nullTracker;
-		DefaultOutputTracker tracker = trackers.get(group);
-		if (tracker == null) {
-			tracker = new DefaultOutputTracker();
-			trackers.put(group, tracker);
-		}
-		return tracker;
+		return group.getOutputTracker();
 	}
 
 	private interface OutputTracker {
@@ -249,7 +241,12 @@ public class LegacyOutputTracker {
 		}
 	}
 
-	private static class DefaultOutputTracker implements OutputTracker {
+	/**
+	 * The tracker of one {@link LegacyThreadGroup}. Its sets are concurrent, so
+	 * the threads of the group never wait on each other or on other groups.
+	 * {@link ImagePlus} does not override equals, so they are identity sets.
+	 */
+	public static class GroupTracker implements OutputTracker {
 
 		// -- instance variables --
 
@@ -257,16 +254,24 @@ public class LegacyOutputTracker {
 		 * Used to provide the list of output {@link ImagePlus}es associated with a
 		 * {@link LegacyCommand}'s {@link ThreadGroup}.
 		 */
-		private Set<ImagePlus> outputs = new HashSet<>();
+		private final Set<ImagePlus> outputs =
+			Collections.newSetFromMap(new ConcurrentHashMap<ImagePlus, Boolean>());
 
 		/**
 		 * Used to provide the list of closed {@link ImagePlus}es associated with a
 		 * {@link LegacyCommand}'s {@link ThreadGroup}.
 		 */
-		private Set<ImagePlus> closed = new HashSet<>();
+		private final Set<ImagePlus> closed =
+			Collections.newSetFromMap(new ConcurrentHashMap<ImagePlus, Boolean>());
 
 		// -- instance public interface --
 
+		/** Forgets all outputs and closed images. */
+		public void clear() {
+			outputs.clear();
+			closed.clear();
+		}
+
 		@Override
 		public void addClosed(ImagePlus imp) {
 			closed.add(imp);
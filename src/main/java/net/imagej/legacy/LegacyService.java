@@ -37,8 +37,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
 
@@ -48,6 +51,9 @@ import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
 import net.imagej.display.OverlayService;
 import net.imagej.legacy.command.LegacyCommand;
+import net.imagej.legacy.command.LegacyCommandExecutor;
+import net.imagej.legacy.command.LegacyStep;
+import net.imagej.legacy.translate.ParallelPlanes;
 import net.imagej.legacy.ui.LegacyUI;
 import net.imagej.patcher.LegacyEnvironment;
 import net.imagej.patcher.LegacyInjector;
@@ -61,6 +67,7 @@ import org.scijava.app.AppService;
 import org.scijava.app.StatusService;
 import org.scijava.command.Command;
 import org.scijava.command.CommandInfo;
+import org.scijava.command.CommandModule;
 import org.scijava.command.CommandService;
 import org.scijava.display.DisplayService;
 import org.scijava.display.event.DisplayActivatedEvent;
@@ -186,6 +193,9 @@ public final class LegacyService extends AbstractService implements
 	/** Mapping between modern and legacy image data structures. */
 	private LegacyImageMap imageMap;
 
+	/** Pooled threads that legacy commands run on. */
+	private LegacyCommandExecutor commandExecutor;
+
 	/**
 	 * A buffer object which keeps all references to ImageJ 1.x separated from
 	 * this class.
@@ -251,6 +261,17 @@ public final class LegacyService extends AbstractService implements
 		return imageMap;
 	}
 
+	/**
+	 * Gets the {@link LegacyCommandExecutor} that legacy commands of this
+	 * LegacyService run on.
+	 */
+	public synchronized LegacyCommandExecutor getCommandExecutor() {
+		if (commandExecutor == null) {
+			commandExecutor = new LegacyCommandExecutor(this);
+		}
+		return commandExecutor;
+	}
+
 	/**
 	 * Runs a legacy command programmatically.
 	 *
@@ -266,9 +287,70 @@ public final class LegacyService extends AbstractService implements
 		final Map<String, Object> inputMap = new HashMap<>();
 		inputMap.put("className", ij1ClassName);
 		inputMap.put("arg", arg);
+		inputMap.put("concurrent", false);
+		inputMap.put("reads", null);
+		inputMap.put("writes", null);
+		inputMap.put("steps", null);
 		commandService.run(LegacyCommand.class, true, inputMap);
 	}
 
+	/**
+	 * Runs a batch of legacy commands programmatically, as one transaction.
+	 * Displays are harmonized into ImageJ 1.x once before the first step and
+	 * back once after the last, so the steps pass their images to each other
+	 * without any conversions in between. A step that throws stops the batch;
+	 * afterwards each {@link LegacyStep} tells whether it ran and what it threw.
+	 *
+	 * @param steps The plugin calls to run, in order
+	 * @return The {@link Future} of the batch execution
+	 */
+	public Future<CommandModule> runLegacyCommands(final List<LegacyStep> steps)
+	{
+		checkActive();
+		if (steps.isEmpty()) {
+			throw new IllegalArgumentException("No legacy commands to run");
+		}
+		final Map<String, Object> inputMap = new HashMap<>();
+		inputMap.put("className", steps.get(0).getClassName());
+		inputMap.put("arg", steps.get(0).getArg());
+		inputMap.put("concurrent", false);
+		inputMap.put("reads", null);
+		inputMap.put("writes", null);
+		inputMap.put("steps", new ArrayList<>(steps));
+		return commandService.run(LegacyCommand.class, true, inputMap);
+	}
+
+	/**
+	 * Runs a legacy command programmatically, at the same time as other legacy
+	 * commands that work on different images. While it runs, the command holds
+	 * the read locks of the displays it reads and the write locks of those it
+	 * writes (see {@link LegacyImageMap#getImageLocks()}). It only harmonizes
+	 * those displays, makes the first of them its current image without
+	 * changing the one other commands see, and leaves the results table alone.
+	 *
+	 * @param ij1ClassName The name of the plugin class you want to run e.g.
+	 *          "ij.plugin.filter.Filters"
+	 * @param argument The argument string to pass to the plugin e.g. "invert"
+	 * @param reads The displays the plugin reads, or null for none
+	 * @param writes The displays the plugin writes, or null for the active one
+	 * @return The {@link Future} of the command execution
+	 */
+	public Future<CommandModule> runLegacyCommandConcurrently(
+		final String ij1ClassName, final String argument,
+		final Collection<ImageDisplay> reads, final Collection<ImageDisplay> writes)
+	{
+		checkActive();
+		final String arg = argument == null ? "" : argument;
+		final Map<String, Object> inputMap = new HashMap<>();
+		inputMap.put("className", ij1ClassName);
+		inputMap.put("arg", arg);
+		inputMap.put("concurrent", true);
+		inputMap.put("reads", reads == null ? null : new ArrayList<>(reads));
+		inputMap.put("writes", writes == null ? null : new ArrayList<>(writes));
+		inputMap.put("steps", null);
+		return commandService.run(LegacyCommand.class, true, inputMap);
+	}
+
 	/**
 	 * Runs the legacy compatible command with the given identifier.
 	 *
@@ -495,6 +577,9 @@ public final class LegacyService extends AbstractService implements
 		if (!isActive()) return;
 
 		ij1Helper.dispose();
+		if (imageMap != null) imageMap.dispose();
+		if (commandExecutor != null) commandExecutor.dispose();
+		ParallelPlanes.shutdown();
 
 		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
 		LegacyInjector.installHooks(loader, null);
@@ -0,0 +1,254 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread safe, bidirectional one to one index between keys and values that
+ * compares both by identity.
+ * <p>
+ * Each entry holds its value strongly. Its key is held either strongly or
+ * weakly; a weakly held key that is garbage collected takes its entry, and
+ * with it the entry's hard reference to the value, along with it. The
+ * strength of an entry can be changed in place, so that switching between
+ * strongly and weakly held entries never copies the index.
+ * </p>
+ * <p>
+ * Lookups never block. Changes are serialized among themselves and are
+ * ordered so that a concurrent lookup sees either the old or the new mapping,
+ * never neither.
+ * </p>
+ * 
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+class WeakIdentityIndex<K, V> {
+
+	// -- instance variables --
+
+	private final ConcurrentHashMap<IdentityKey<K>, Entry<K, V>> byKey =
+		new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<IdentityKey<V>, Entry<K, V>> byValue =
+		new ConcurrentHashMap<>();
+
+	private final ReferenceQueue<K> collected = new ReferenceQueue<>();
+
+	// -- WeakIdentityIndex methods --
+
+	/**
+	 * Gets the value mapped to the given key, or null if there is none (or the
+	 * key is only reserved).
+	 */
+	public V get(final K key) {
+		expunge();
+		final Entry<K, V> entry = byKey.get(new IdentityKey<>(key, null));
+		return entry == null ? null : entry.value;
+	}
+
+	/** Gets the key mapped to the given value, or null if there is none. */
+	public K getKey(final V value) {
+		expunge();
+		final Entry<K, V> entry = byValue.get(new IdentityKey<>(value, null));
+		return entry == null ? null : entry.key();
+	}
+
+	/**
+	 * Atomically reserves the given key if it is not in the index yet. A
+	 * reserved key maps to no value and is held weakly until a mapping replaces
+	 * it.
+	 * 
+	 * @return true if the key was reserved by this call; false if the key was
+	 *         already reserved or mapped
+	 */
+	public boolean reserve(final K key) {
+		expunge();
+		final Entry<K, V> entry = new Entry<>(key, null, collected, true);
+		return byKey.putIfAbsent(entry.key, entry) == null;
+	}
+
+	/**
+	 * Maps the given key and value to each other, dropping any mapping either
+	 * of them was part of before.
+	 * 
+	 * @param weak Whether the key is to be held weakly
+	 */
+	public synchronized void put(final K key, final V value, final boolean weak)
+	{
+		expunge();
+		final Entry<K, V> entry = new Entry<>(key, value, collected, weak);
+		// NB - insert before removing stale entries, so that concurrent lookups
+		// of the key or the value always find a mapping
+		final Entry<K, V> oldForKey = byKey.put(entry.key, entry);
+		final Entry<K, V> oldForValue = byValue.put(entry.valueKey, entry);
+		if (oldForKey != null && oldForKey.valueKey != null &&
+			oldForKey.value != value)
+		{
+			byValue.remove(oldForKey.valueKey, oldForKey);
+		}
+		if (oldForValue != null && oldForValue.key() != key) {
+			byKey.remove(oldForValue.key, oldForValue);
+		}
+	}
+
+	/** Removes the mapping, or reservation, of the given key. */
+	public synchronized void removeKey(final K key) {
+		final Entry<K, V> entry = byKey.remove(new IdentityKey<>(key, null));
+		if (entry != null && entry.valueKey != null) {
+			byValue.remove(entry.valueKey, entry);
+		}
+		expunge();
+	}
+
+	/** Removes the mapping of the given value. */
+	public synchronized void removeValue(final V value) {
+		final Entry<K, V> entry = byValue.remove(new IdentityKey<>(value, null));
+		if (entry != null) byKey.remove(entry.key, entry);
+		expunge();
+	}
+
+	/**
+	 * Changes whether the key of the given entry is held weakly. Does nothing if
+	 * the key is not in the index.
+	 */
+	public synchronized void hold(final K key, final boolean weak) {
+		final Entry<K, V> entry = byKey.get(new IdentityKey<>(key, null));
+		if (entry != null) entry.hold(weak);
+	}
+
+	/** Changes whether the keys of all entries are held weakly. */
+	public synchronized void holdAll(final boolean weak) {
+		for (final Entry<K, V> entry : byKey.values()) {
+			entry.hold(weak);
+		}
+	}
+
+	/** Gets a snapshot of the keys that are mapped to a value. */
+	public List<K> keys() {
+		expunge();
+		final List<K> keys = new ArrayList<>();
+		for (final Entry<K, V> entry : byValue.values()) {
+			final K key = entry.key();
+			if (key != null) keys.add(key);
+		}
+		return keys;
+	}
+
+	/** Gets a snapshot of the values that are mapped to a key. */
+	public List<V> values() {
+		expunge();
+		final List<V> values = new ArrayList<>();
+		for (final Entry<K, V> entry : byValue.values()) {
+			if (entry.key() != null) values.add(entry.value);
+		}
+		return values;
+	}
+
+	// -- Helper methods --
+
+	/** Drops the entries whose weakly held keys were garbage collected. */
+	private void expunge() {
+		Reference<? extends K> ref;
+		while ((ref = collected.poll()) != null) {
+			final Entry<K, V> entry = byKey.remove(ref);
+			if (entry != null && entry.valueKey != null) {
+				byValue.remove(entry.valueKey, entry);
+			}
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * A weak reference that is equal to another if both still refer to the same
+	 * object. A cleared reference is only equal to itself.
+	 */
+	private static class IdentityKey<T> extends WeakReference<T> {
+
+		private final int hash;
+
+		public IdentityKey(final T referent, final ReferenceQueue<? super T> queue)
+		{
+			super(referent, queue);
+			hash = System.identityHashCode(referent);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) return true;
+			if (!(o instanceof IdentityKey)) return false;
+			final Object referent = get();
+			return referent != null && referent == ((IdentityKey<?>) o).get();
+		}
+	}
+
+	/** A mapping between a key and a (possibly null) value. */
+	private static class Entry<K, V> {
+
+		private final IdentityKey<K> key;
+		private final IdentityKey<V> valueKey;
+		private final V value;
+
+		/** A hard reference to the key while it is held strongly. */
+		private volatile K strongKey;
+
+		public Entry(final K key, final V value,
+			final ReferenceQueue<? super K> queue, final boolean weak)
+		{
+			this.key = new IdentityKey<>(key, queue);
+			this.value = value;
+			valueKey = value == null ? null : new IdentityKey<>(value, null);
+			if (!weak) strongKey = key;
+		}
+
+		public K key() {
+			return key.get();
+		}
+
+		public void hold(final boolean weak) {
+			strongKey = weak ? null : key.get();
+		}
+	}
+
+}
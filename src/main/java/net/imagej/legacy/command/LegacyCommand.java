@@ -38,18 +38,19 @@ import ij.gui.Roi;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import net.imagej.Dataset;
 import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
+import net.imagej.legacy.ImageLocks;
 import net.imagej.legacy.LegacyImageMap;
 import net.imagej.legacy.LegacyOutputTracker;
 import net.imagej.legacy.LegacyService;
-import net.imagej.legacy.translate.DefaultImageTranslator;
+import net.imagej.legacy.Utils;
 import net.imagej.legacy.translate.Harmonizer;
-import net.imagej.legacy.translate.ImageTranslator;
 import net.imagej.legacy.translate.LegacyUtils;
 import net.imagej.legacy.translate.ResultsTableHarmonizer;
 
@@ -70,7 +71,13 @@ import org.scijava.ui.UIService;
  */
 public class LegacyCommand implements Command {
 
-	private static final String THREAD_NAME = "IJ1 legacy thread";
+	/**
+	 * System property that makes every non-concurrent command lock all images,
+	 * waiting for the concurrent ones to finish and keeping new ones out until
+	 * it is done. Off by default, as it serializes such commands.
+	 */
+	public static final String EXCLUSIVE_PROPERTY =
+		"imagej.legacy.exclusiveCommands";
 
 	@Parameter
 	private String className;
@@ -78,6 +85,35 @@ public class LegacyCommand implements Command {
 	@Parameter
 	private String arg;
 
+	/**
+	 * Whether the command may run at the same time as other legacy commands.
+	 * A concurrent command locks the displays it reads and writes, harmonizes
+	 * only those and leaves the results table alone. Any other command takes
+	 * no locks, unless the {@link #EXCLUSIVE_PROPERTY} system property is set.
+	 */
+	@Parameter(required = false)
+	private boolean concurrent;
+
+	/** The displays a concurrent command reads. */
+	@Parameter(required = false)
+	private List<ImageDisplay> reads;
+
+	/**
+	 * The displays a concurrent command writes. If null, the active display is
+	 * assumed.
+	 */
+	@Parameter(required = false)
+	private List<ImageDisplay> writes;
+
+	/**
+	 * Plugin calls to run one after the other in place of {@link #className}
+	 * and {@link #arg}. Displays are harmonized once before the first step and
+	 * once after the last; in between the steps work on the ImageJ 1.x side
+	 * only. A failing step stops the batch.
+	 */
+	@Parameter(required = false)
+	private List<LegacyStep> steps;
+
 	@Parameter(type = ItemIO.OUTPUT)
 	private List<ImageDisplay> outputs;
 
@@ -113,7 +149,8 @@ public class LegacyCommand implements Command {
 		final ImageDisplay activeDisplay =
 			imageDisplayService.getActiveImageDisplay();
 
-		if (!isLegacyCompatible(activeDisplay)) {
+		// NB - a concurrent command only touches the displays it declared
+		if (!concurrent && !isLegacyCompatible(activeDisplay)) {
 			final String err =
 				"The active dataset is not compatible with ImageJ v1.x.";
 			log.error(err);
@@ -122,30 +159,101 @@ public class LegacyCommand implements Command {
 			return;
 		}
 
-		// System.out.println("Launching legacy thread");
+		if (concurrent) {
+			if (writes == null) {
+				writes = activeDisplay == null ? //
+					Collections.<ImageDisplay> emptyList() : //
+					Collections.singletonList(activeDisplay);
+			}
+			if (reads == null) reads = Collections.emptyList();
+			for (final ImageDisplay display : lockedDisplays()) {
+				if (isLegacyCompatible(display)) continue;
+				final String err = "Display " + display.getName() +
+					" is not compatible with ImageJ v1.x.";
+				log.error(err);
+				notifyUser(err);
+				outputs = new ArrayList<>();
+				return;
+			}
+		}
 
-		final LegacyCommandThread thread = new LegacyCommandThread();
+		// System.out.println("Launching legacy thread");
 
+		// NB - the locks belong to this thread, which outlives the legacy task
+		ImageLocks.Held locks = null;
 		// enforce the desired order of thread execution
 		try {
-			thread.start();
-			thread.join();
+			// NB - a command run from within a legacy command shares its locks
+			if (!Utils.isLegacyThread(Thread.currentThread())) {
+				final ImageLocks imageLocks =
+					legacyService.getImageMap().getImageLocks();
+				if (concurrent) locks = imageLocks.acquire(reads, writes);
+				else if (Boolean.getBoolean(EXCLUSIVE_PROPERTY)) {
+					locks = imageLocks.acquireAll();
+				}
+			}
+			await(legacyService.getCommandExecutor().submit(
+				new LegacyCommandTask()));
+		}
+		catch (final ExecutionException e) {
+			// NB - the task has no thread of its own to report this any more
+			log.error("Legacy command failed", e.getCause());
+		}
+		catch (final InterruptedException e) {
+			// interrupted while waiting for the locks; nothing ran
+			Thread.currentThread().interrupt();
 		}
 		catch (final Exception e) {
 			// will have been handled earlier
 		}
+		finally {
+			if (locks != null) locks.close();
+		}
+		if (outputs == null) outputs = new ArrayList<>();
 
 		// System.out.println("Done with legacy thread");
 	}
 
 	// -- helper methods --
 
+	/**
+	 * Waits for the given task to finish, even if interrupted meanwhile: the
+	 * locks it runs under must not be released before. The interrupt is
+	 * restored afterwards.
+	 */
+	private static void await(final Future<?> task) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					task.get();
+					return;
+				}
+				catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
 	private boolean isLegacyCompatible(final ImageDisplay display) {
 		if (display == null) return true;
 		final Dataset ds = imageDisplayService.getActiveDataset(display);
 		return LegacyUtils.dimensionsIJ1Compatible(ds);
 	}
 
+	/** Gets the displays a concurrent command reads or writes. */
+	private List<ImageDisplay> lockedDisplays() {
+		final List<ImageDisplay> displays = new ArrayList<>(writes);
+		for (final ImageDisplay display : reads) {
+			if (!displays.contains(display)) displays.add(display);
+		}
+		return displays;
+	}
+
 	private void notifyUser(final String message) {
 		uiService.showDialog(message, "Error",
 			DialogPrompt.MessageType.INFORMATION_MESSAGE,
@@ -154,38 +262,44 @@ public class LegacyCommand implements Command {
 
 	// -- helper class --
 
-	private class LegacyCommandThread extends Thread {
+	private class LegacyCommandTask implements Runnable {
 
-		final private ThreadGroup group;
-		final private LegacyImageMap map;
-		final private Harmonizer harmonizer;
+		private LegacyThreadGroup group;
+		private LegacyImageMap map;
+		private Harmonizer harmonizer;
+		private List<LegacyStep> batch;
+		private LegacyStep failed;
 
 		// NB - BDZ
 		// In order to keep threads from waiting on each other unnecessarily when
 		// multiple legacy plugins are running simultaneously we run the plugin
 		// in its own thread group. waitForPluginThreads() only waits for those
 		// threads in its group.
-
-		public LegacyCommandThread() {
-			super(new LegacyThreadGroup(legacyService), THREAD_NAME);
-			this.group = getThreadGroup();
-			this.map = legacyService.getImageMap();
-			final ImageTranslator imageTranslator =
-				new DefaultImageTranslator(legacyService);
-			this.harmonizer =
-				new Harmonizer(legacyService.getContext(), imageTranslator);
-		}
+		// Each pooled worker of the LegacyCommandExecutor has a thread group of
+		// its own, and keeps its translator and harmonizer between commands.
 
 		@Override
 		public void run() {
+			final LegacyCommandExecutor.Worker worker =
+				LegacyCommandExecutor.currentWorker();
+			this.group = worker.getLegacyThreadGroup();
+			this.map = legacyService.getImageMap();
+			this.harmonizer = worker.getHarmonizer();
+			this.batch = steps != null ? steps : //
+				Collections.singletonList(new LegacyStep(className, arg));
 
+			// NB - the results table is global; concurrent commands leave it alone
 			final ResultsTableHarmonizer rtHarmonizer =
-				new ResultsTableHarmonizer(displayService);
+				concurrent ? null : new ResultsTableHarmonizer(displayService);
 
-			rtHarmonizer.setLegacyImageJResultsTable();
+			if (rtHarmonizer != null) rtHarmonizer.setLegacyImageJResultsTable();
 
 			harmonizer.resetTypeTracking();
 
+			// NB - redraws still waiting in the background would otherwise run
+			// in the middle of the harmonization or of the plugin
+			map.getUpdateScheduler().flush();
+
 			updateImagePlusesFromDisplays();
 
 			// reportStackIssues("Before IJ1 plugin run");
@@ -195,23 +309,21 @@ public class LegacyCommand implements Command {
 			LegacyOutputTracker.clearClosed();
 
 			// set ImageJ1's active image
-			legacyService.syncActiveImage();
+			if (concurrent) setTempCurrentImage();
+			else legacyService.syncActiveImage();
 
-			try {
-				// execute the legacy plugin
-				IJ.runPlugIn(className, arg);
+			// remember the active image's planes so only those the plugin changes
+			// are copied back afterwards
+			harmonizer.snapshotPlanes(WindowManager.getCurrentImage());
 
-				// we always sleep at least once to make sure plugin has time to hatch
-				// it's first thread if its going to create any.
-				try {
-					Thread.sleep(50);
+			try {
+				// execute the legacy plugins
+				for (final LegacyStep step : batch) {
+					runStep(step);
 				}
-				catch (final InterruptedException e) {/**/}
-
-				// wait for any threads hatched by plugin to terminate
-				waitForPluginThreads();
 
 				// sync modern displays to match existing legacy images
+				map.getUpdateScheduler().flush();
 				outputs = updateDisplaysFromImagePluses();
 
 				// close any displays that IJ1 wants closed
@@ -226,10 +338,21 @@ public class LegacyCommand implements Command {
 				// reportStackIssues("After IJ1 plugin run");
 			}
 			catch (final Exception e) {
-				final String msg = "ImageJ 1.x plugin threw exception";
+				String msg = "ImageJ 1.x plugin threw exception";
+				if (batch.size() > 1 && failed != null) {
+					msg += " in step " + (batch.indexOf(failed) + 1) + " (" + failed +
+						")";
+				}
 				log.error(msg, e);
 				notifyUser(msg);
-				// make sure our ImagePluses are in sync with original Datasets
+				// make sure our ImagePluses are in sync with original Datasets. The
+				// plugin may have half modified them, so force a full harmonization.
+				if (concurrent) {
+					for (final ImageDisplay display : lockedDisplays()) {
+						map.getSyncTracker().invalidate(display);
+					}
+				}
+				else map.getSyncTracker().invalidateAll();
 				updateImagePlusesFromDisplays();
 				// return no outputs
 				outputs = new ArrayList<>();
@@ -241,92 +364,45 @@ public class LegacyCommand implements Command {
 				LegacyOutputTracker.clearClosed();
 			}
 
-			rtHarmonizer.setModernImageJResultsTable();
+			if (rtHarmonizer != null) rtHarmonizer.setModernImageJResultsTable();
 		}
 
-		private void waitForPluginThreads() {
-//			log.debug("LegacyCommand: begin waitForPluginThreads()");
-			while (true) {
-				boolean allDead = true;
-				final List<Thread> currentThreads = getCurrentThreads();
-				for (final Thread thread : currentThreads) {
-					if (thread == Thread.currentThread()) continue;
-					// Ignore some threads that IJ1 hatches that never terminate
-					if (whitelisted(thread)) continue;
-					if (thread.isAlive()) {
-						// System.out.println(thread.getName() + " thread is alive");
-						// reportThreadInfo(thread, currentThreads, null);
-						allDead = false;
-						break;
-					}
-				}
-				if (allDead) break;
-				try {
-					Thread.sleep(200);
-				}
-				catch (final Exception e) {/**/}
-			}
-//			log.debug("LegacyCommand: end waitForPluginThreads()");
+		/**
+		 * Makes the first written (or else read) display's {@link ImagePlus} the
+		 * current image of this thread only, leaving the one other commands see
+		 * alone.
+		 */
+		private void setTempCurrentImage() {
+			final List<ImageDisplay> displays = lockedDisplays();
+			final ImagePlus imp =
+				displays.isEmpty() ? null : map.lookupImagePlus(displays.get(0));
+			WindowManager.setTempCurrentImage(imp);
 		}
 
-		private List<Thread> getCurrentThreads() {
-			Thread[] threads;
-			int numThreads;
-			int size = 10;
-			do {
-				threads = new Thread[size];
-				numThreads = group.enumerate(threads);
-				size *= 2;
+		/** Runs one plugin call and the threads it hatches to completion. */
+		private void runStep(final LegacyStep step) {
+			try {
+				IJ.runPlugIn(step.getClassName(), step.getArg());
+
+				// wait for any threads hatched by plugin to terminate
+				waitForPluginThreads();
+				step.finish(null);
+			}
+			catch (final RuntimeException | Error e) {
+				failed = step;
+				step.finish(e);
+				throw e;
 			}
-			while (numThreads > threads.length);
-			final List<Thread> threadList = new LinkedList<>();
-			for (int i = 0; i < numThreads; i++)
-				threadList.add(threads[i]);
-			return threadList;
 		}
 
-		/**
-		 * Identifies threads that legacy ImageJ hatches that don't terminate in a
-		 * timely way.
-		 */
-		private boolean whitelisted(final Thread thread) {
-
-			final String threadName = thread.getName();
-
-			// the wait loop generates a timer that needs to be ignored. Ignoring all
-			// timers is likely fine because associated worker threads should exist
-			// too.
-			if (threadName.startsWith("Timer")) return true;
-
-			// StackWindow slider selector thread: thread does not go away until the
-			// window closes.
-			if (threadName.equals("zSelector")) return true;
-
-			// threads that load images from web can sleep a long time waiting after
-			// their data has already been loaded
-			// if (threadName.contains("Image Fetcher") &&
-			// NB BDZ - 10-29-13 at some point the "Image Fetcher" string disappeared.
-			// Like Timer threads we will ignore Timed Waiting threads as they too
-			// wait on another running thread. Not sure how safe this is but it
-			// seems necessary.
-			if (thread.getState() == Thread.State.TIMED_WAITING) {
-				return true;
+		private void waitForPluginThreads() {
+			try {
+				group.awaitThreads();
+			}
+			catch (final InterruptedException e) {
+				// stop waiting, but let the caller know we were interrupted
+				Thread.currentThread().interrupt();
 			}
-			/*
-				// select by class name
-				System.out.println("---"+thread.getClass().getDeclaringClass());
-				System.out.println("---"+thread.getClass().getEnclosingClass());
-				System.out.println("---"+thread.getClass().getCanonicalName());
-				System.out.println("---"+thread.getClass().getName());
-				System.out.println("---"+thread.getClass().getSimpleName());
-				System.out.println("---"+thread.getClass().getClass());
-				System.out.println("---"+thread.getClass().getInterfaces());
-				
-				// select by name of runnable class it owns
-				//System.out.println(thread.HOW???);
-			*/
-
-			return false;
 		}
 
 		// TODO - modern ImageJ could modify an image to go outside legacy ImageJ's
@@ -335,10 +411,11 @@ public class LegacyCommand implements Command {
 		// rather than having harmonization or something else fail.
 
 		private void updateImagePlusesFromDisplays() {
-			// TODO - track events and keep a dirty bit, then only harmonize those
-			// displays that have changed. See ticket #546.
-			final List<ImageDisplay> imageDisplays =
-				imageDisplayService.getImageDisplays();
+			// NB - the harmonizer consults the DisplaySyncTracker and only does the
+			// expensive work for displays that changed since their last sync. See
+			// ticket #546.
+			final List<ImageDisplay> imageDisplays = concurrent ? lockedDisplays()
+				: imageDisplayService.getImageDisplays();
 			for (final ImageDisplay display : imageDisplays) {
 				ImagePlus imp = map.lookupImagePlus(display);
 				if (imp == null) {
@@ -419,7 +496,7 @@ public class LegacyCommand implements Command {
 			System.out.println("  Other threads");
 			for (final Thread t : allThreads) {
 				if (threadsToIgnore != null && threadsToIgnore.contains(t)) continue;
-				if (whitelisted(t)) continue;
+				if (LegacyThreadGroup.isWhitelisted(t)) continue;
 				if (t.isAlive()) {
 					System.out
 						.println("    id = " + t.getId() + " name = " + t.getName());
@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.command;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.legacy.IJ1Helper;
+import net.imagej.legacy.LegacyService;
+import net.imagej.legacy.translate.DefaultImageTranslator;
+import net.imagej.legacy.translate.Harmonizer;
+import net.imagej.legacy.translate.ImageTranslator;
+
+/**
+ * Runs {@link LegacyCommand}s on pooled worker threads.
+ * <p>
+ * Each {@link Worker} lives in a {@link LegacyThreadGroup} of its own, so the
+ * threads a plugin hatches can be told apart from those of other commands,
+ * and keeps the {@link ImageTranslator} and {@link Harmonizer} it made for its
+ * first command for the ones after it. Idle workers stay around for a while
+ * (see {@link #KEEP_ALIVE_PROPERTY}) so a batch of small commands does not
+ * pay for new threads and new translators on every call. A new worker is
+ * started whenever all are busy, which keeps commands that run other
+ * commands from waiting on each other.
+ * </p>
+ */
+public class LegacyCommandExecutor {
+
+	/**
+	 * System property holding how many seconds an idle worker waits for its
+	 * next command before it ends. Defaults to 60.
+	 */
+	public static final String KEEP_ALIVE_PROPERTY =
+		"imagej.legacy.commandKeepAlive";
+
+	private static final String THREAD_NAME = "IJ1 legacy thread";
+
+	// -- instance variables --
+
+	private final LegacyService legacyService;
+	private final ThreadPoolExecutor executor;
+
+	// -- constructor --
+
+	public LegacyCommandExecutor(final LegacyService legacyService) {
+		this.legacyService = legacyService;
+		executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, //
+			Long.getLong(KEEP_ALIVE_PROPERTY, 60), TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new WorkerFactory());
+	}
+
+	// -- LegacyCommandExecutor methods --
+
+	/**
+	 * Runs the given task on a worker. The worker starts the task and ends it
+	 * without anything an earlier task left behind; see
+	 * {@link Worker#reset()}.
+	 */
+	public Future<?> submit(final Runnable task) {
+		return executor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				final Worker worker = currentWorker();
+				worker.reset();
+				try {
+					task.run();
+				}
+				finally {
+					worker.reset();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the worker the calling thread is, or null if it is not one.
+	 */
+	public static Worker currentWorker() {
+		final Thread thread = Thread.currentThread();
+		return thread instanceof Worker ? (Worker) thread : null;
+	}
+
+	/** Lets the workers end once they are done. */
+	public void dispose() {
+		executor.shutdown();
+	}
+
+	// -- Helper classes --
+
+	/** A pooled thread that legacy commands run on. */
+	public class Worker extends Thread {
+
+		private ImageTranslator imageTranslator;
+		private Harmonizer harmonizer;
+
+		private Worker(final ThreadGroup parent, final Runnable r) {
+			super(new LegacyThreadGroup(parent, legacyService), r, THREAD_NAME);
+			setDaemon(true);
+		}
+
+		/**
+		 * Drops what the last task left behind on this worker: the state ImageJ
+		 * 1.x keeps per thread, and the images its thread group tracked.
+		 */
+		public void reset() {
+			IJ1Helper.resetThreadState();
+			getLegacyThreadGroup().getOutputTracker().clear();
+		}
+
+		/** Gets the {@link LegacyThreadGroup} of this worker. */
+		public LegacyThreadGroup getLegacyThreadGroup() {
+			return (LegacyThreadGroup) getThreadGroup();
+		}
+
+		/**
+		 * Gets the {@link ImageTranslator} of this worker, creating it on first
+		 * use.
+		 */
+		public ImageTranslator getImageTranslator() {
+			if (imageTranslator == null) {
+				imageTranslator = new DefaultImageTranslator(legacyService);
+			}
+			return imageTranslator;
+		}
+
+		/**
+		 * Gets the {@link Harmonizer} of this worker, creating it on first use.
+		 */
+		public Harmonizer getHarmonizer() {
+			if (harmonizer == null) {
+				harmonizer =
+					new Harmonizer(legacyService.getContext(), getImageTranslator());
+			}
+			return harmonizer;
+		}
+	}
+
+	/**
+	 * Makes workers whose thread groups hang off the top level thread group.
+	 * This keeps a worker out of the {@link LegacyThreadGroup} of whichever
+	 * legacy command happened to start it, which would otherwise wait for it to
+	 * die.
+	 */
+	private class WorkerFactory implements ThreadFactory {
+
+		private final ThreadGroup parent;
+
+		public WorkerFactory() {
+			ThreadGroup g = Thread.currentThread().getThreadGroup();
+			while (g.getParent() != null) {
+				g = g.getParent();
+			}
+			parent = g;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			return new Worker(parent, r);
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.command;
+
+/**
+ * One ImageJ 1.x plugin call in a batch of legacy commands; see
+ * {@link net.imagej.legacy.LegacyService#runLegacyCommands(java.util.List)}.
+ * Once the batch is done the step tells whether it ran and how it went.
+ */
+public class LegacyStep {
+
+	private final String className;
+	private final String arg;
+	private volatile boolean done;
+	private volatile Throwable error;
+
+	/**
+	 * @param className The name of the plugin class to run e.g.
+	 *          "ij.plugin.filter.Filters"
+	 * @param arg The argument string to pass to the plugin e.g. "invert"
+	 */
+	public LegacyStep(final String className, final String arg) {
+		this.className = className;
+		this.arg = arg == null ? "" : arg;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getArg() {
+		return arg;
+	}
+
+	/** Whether the step ran, successfully or not. */
+	public boolean isDone() {
+		return done;
+	}
+
+	/** Gets what the step threw, or null if it ran fine or did not run. */
+	public Throwable getError() {
+		return error;
+	}
+
+	/** Whether the step ran without throwing. */
+	public boolean succeeded() {
+		return done && error == null;
+	}
+
+	/** Records that the step ran, and what it threw if anything. */
+	void finish(final Throwable t) {
+		error = t;
+		done = true;
+	}
+
+	@Override
+	public String toString() {
+		return arg.isEmpty() ? className : className + "(\"" + arg + "\")";
+	}
+
+}
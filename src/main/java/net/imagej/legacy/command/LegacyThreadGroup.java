@@ -31,25 +31,128 @@
 
 package net.imagej.legacy.command;
 
+import net.imagej.legacy.LegacyOutputTracker;
 import net.imagej.legacy.LegacyService;
 
 /**
- * TODO
+ * The {@link ThreadGroup} a legacy command runs in. Any threads the ImageJ
+ * 1.x plugin hatches join this group, which lets the command wait for just
+ * those threads with {@link #awaitThreads()}.
  * 
  * @author Johannes Schindelin
  */
 public class LegacyThreadGroup extends ThreadGroup {
 
 	private static final String GROUP_NAME = "IJ1 legacy group";
+
+	/**
+	 * How long to wait on a busy thread before checking again whether it is
+	 * whitelisted by now, in milliseconds.
+	 */
+	private static final long RECHECK_INTERVAL = 200;
+
 	private final LegacyService legacyService;
 
+	/**
+	 * The images the threads of this group created and closed. Whoever runs
+	 * commands in this group clears it once a command is done.
+	 */
+	private final LegacyOutputTracker.GroupTracker outputTracker =
+		new LegacyOutputTracker.GroupTracker();
+
 	public LegacyThreadGroup(final LegacyService legacyService) {
 		super(GROUP_NAME);
 		this.legacyService = legacyService;
 	}
 
+	/** Creates a LegacyThreadGroup below the given parent group. */
+	public LegacyThreadGroup(final ThreadGroup parent,
+		final LegacyService legacyService)
+	{
+		super(parent, GROUP_NAME);
+		this.legacyService = legacyService;
+		// NB - lets the parent drop the empty group once its last thread ends
+		setDaemon(true);
+	}
+
 	public LegacyService getLegacyService() {
 		return legacyService;
 	}
 
+	/**
+	 * Gets the tracker of the images that the threads of this group created and
+	 * closed.
+	 */
+	public LegacyOutputTracker.GroupTracker getOutputTracker() {
+		return outputTracker;
+	}
+
+	/**
+	 * Waits until every thread of this group, other than the calling one, has
+	 * terminated. Threads that legacy ImageJ hatches which do not terminate in
+	 * a timely way are ignored; see {@link #isWhitelisted(Thread)}.
+	 * <p>
+	 * Rather than polling, the wait joins the busy threads one at a time, so it
+	 * returns as soon as the last of them exits. Threads hatched in the
+	 * meantime by the threads being waited for belong to this group too, and
+	 * are waited for in turn.
+	 * </p>
+	 */
+	public void awaitThreads() throws InterruptedException {
+		Thread busy;
+		while ((busy = findBusyThread()) != null) {
+			busy.join(RECHECK_INTERVAL);
+		}
+	}
+
+	/**
+	 * Identifies threads that legacy ImageJ hatches that don't terminate in a
+	 * timely way.
+	 */
+	public static boolean isWhitelisted(final Thread thread) {
+
+		final String threadName = thread.getName();
+
+		// the wait loop generates a timer that needs to be ignored. Ignoring all
+		// timers is likely fine because associated worker threads should exist
+		// too.
+		if (threadName.startsWith("Timer")) return true;
+
+		// StackWindow slider selector thread: thread does not go away until the
+		// window closes.
+		if (threadName.equals("zSelector")) return true;
+
+		// threads that load images from web can sleep a long time waiting after
+		// their data has already been loaded
+		// if (threadName.contains("Image Fetcher") &&
+		// NB BDZ - 10-29-13 at some point the "Image Fetcher" string disappeared.
+		// Like Timer threads we will ignore Timed Waiting threads as they too
+		// wait on another running thread. Not sure how safe this is but it
+		// seems necessary.
+		return thread.getState() == Thread.State.TIMED_WAITING;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets a live thread of this group that is neither the calling thread nor
+	 * whitelisted, or null if there is none.
+	 */
+	private Thread findBusyThread() {
+		Thread[] threads;
+		int count;
+		do {
+			threads = new Thread[activeCount() + 8];
+			count = enumerate(threads);
+		}
+		while (count == threads.length);
+		for (int i = 0; i < count; i++) {
+			final Thread thread = threads[i];
+			if (thread == Thread.currentThread()) continue;
+			if (!thread.isAlive() || isWhitelisted(thread)) continue;
+			return thread;
+		}
+		return null;
+	}
+
 }
@@ -0,0 +1,289 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.convert;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Bulk access to the arrays backing a {@link ResultsTable}.
+ * <p>
+ * {@link ResultsTable} only offers cell-by-cell access, so these helpers
+ * reach into its private fields. If those cannot be accessed, the bulk
+ * operations leave the table untouched and return false, and callers fall
+ * back to the public API.
+ * </p>
+ */
+final class ResultsTableArrays {
+
+	private static final Field COLUMNS = field("columns");
+	private static final Field STRING_COLUMNS = field("stringColumns");
+	private static final Field ROW_LABELS = field("rowLabels");
+	private static final Field COUNTER = field("counter");
+	private static final Field MAX_ROWS = field("maxRows");
+	private static final Field LAST_COLUMN = field("lastColumn");
+
+	private ResultsTableArrays() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Gets the backing array of the given column, or null if it cannot be
+	 * accessed. The array may be longer than the table.
+	 */
+	static double[] column(final ResultsTable table, final int col) {
+		if (COLUMNS == null || col < 0) return null;
+		try {
+			final double[][] columns = (double[][]) COLUMNS.get(table);
+			if (col >= columns.length) return null;
+			final double[] values = columns[col];
+			return values != null && values.length >= table.size() ? values : null;
+		}
+		catch (final Exception exc) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if any cell of the given column may hold a String. If the string
+	 * cells cannot be accessed, this conservatively returns true.
+	 */
+	static boolean hasStrings(final ResultsTable table, final int col) {
+		if (STRING_COLUMNS == null) return true;
+		try {
+			final Map<?, ?> strings = (Map<?, ?>) STRING_COLUMNS.get(table);
+			return strings != null && strings.get(col) != null;
+		}
+		catch (final Exception exc) {
+			return true;
+		}
+	}
+
+	/**
+	 * Appends the given number of rows, growing every column at most once.
+	 *
+	 * @param fill the value of the new cells
+	 * @return false if the table could not be accessed
+	 */
+	static boolean appendRows(final ResultsTable table, final int count,
+		final double fill)
+	{
+		synchronized (table) {
+			final Internals t = Internals.of(table);
+			if (t == null) return false;
+			final int size = t.counter + count;
+			if (size >= t.maxRows) {
+				// NB - grow into new arrays; the table sees them once stored
+				final int capacity = Math.max(2 * t.maxRows, size + 1);
+				final double[][] grown = new double[t.columns.length][];
+				for (int c = 0; c < grown.length; c++) {
+					if (t.columns[c] != null) {
+						grown[c] = Arrays.copyOf(t.columns[c], capacity);
+					}
+				}
+				t.columns = grown;
+				if (t.labels != null) t.labels = Arrays.copyOf(t.labels, capacity);
+				t.maxRows = capacity;
+			}
+			for (final double[] column : t.columns) {
+				if (column != null) Arrays.fill(column, t.counter, size, fill);
+			}
+			if (t.labels != null) Arrays.fill(t.labels, t.counter, size, null);
+			for (int i = 0; i < t.strings.size(); i++) {
+				// drop any leftovers, so the new cells are numbers
+				final List<Object> cells = t.strings.get(i);
+				if (cells.size() > t.counter) {
+					t.newStrings.set(i, new ArrayList<>(cells.subList(0, t.counter)));
+				}
+			}
+			t.counter = size;
+			return t.store(table);
+		}
+	}
+
+	/**
+	 * Deletes the given rows, shifting each column only once.
+	 *
+	 * @param rows distinct row indices in ascending order
+	 * @return false if the table could not be accessed
+	 */
+	static boolean deleteRows(final ResultsTable table, final int[] rows) {
+		synchronized (table) {
+			final Internals t = Internals.of(table);
+			if (t == null) return false;
+			if (rows.length == 0) return true;
+			final double[][] compacted = new double[t.columns.length][];
+			for (int c = 0; c < compacted.length; c++) {
+				if (t.columns[c] != null) {
+					compacted[c] = compact(t.columns[c], rows, t.counter);
+				}
+			}
+			t.columns = compacted;
+			if (t.labels != null) t.labels = compact(t.labels, rows, t.counter);
+			for (int i = 0; i < t.strings.size(); i++) {
+				final List<Object> cells = t.strings.get(i);
+				final List<Object> kept = new ArrayList<>(cells.size());
+				for (int r = 0, d = 0; r < cells.size(); r++) {
+					if (d < rows.length && rows[d] == r) d++;
+					else kept.add(cells.get(r));
+				}
+				t.newStrings.set(i, kept);
+			}
+			t.counter -= rows.length;
+			return t.store(table);
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Copies the first {@code size} elements of the given array, leaving out
+	 * the given rows, into a new array of the same length.
+	 */
+	private static <T> T compact(final T array, final int[] rows,
+		final int size)
+	{
+		@SuppressWarnings("unchecked")
+		final T copy = (T) Array.newInstance(array.getClass().getComponentType(),
+			Array.getLength(array));
+		System.arraycopy(array, 0, copy, 0, rows[0]);
+		int write = rows[0];
+		for (int i = 0; i < rows.length; i++) {
+			final int from = rows[i] + 1;
+			final int to = i + 1 < rows.length ? rows[i + 1] : size;
+			System.arraycopy(array, from, copy, write, to - from);
+			write += to - from;
+		}
+		return copy;
+	}
+
+	private static Field field(final String name) {
+		try {
+			final Field f = ResultsTable.class.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+		}
+		catch (final Exception exc) {
+			return null;
+		}
+	}
+
+	/**
+	 * A snapshot of the fields of a {@link ResultsTable}. All fields are read
+	 * and checked up front, and changes are made to copies which only reach
+	 * the table through {@link #store(ResultsTable)}, so a table is never left
+	 * half modified.
+	 */
+	private static class Internals {
+
+		private double[][] columns;
+		private final List<List<Object>> strings;
+		/** The new cells of each string column, or null if unchanged. */
+		private final List<List<Object>> newStrings;
+		private String[] labels;
+		private int counter;
+		private int maxRows;
+
+		private Internals(final double[][] columns,
+			final List<List<Object>> strings, final String[] labels,
+			final int counter, final int maxRows)
+		{
+			this.columns = columns;
+			this.strings = strings;
+			newStrings = new ArrayList<>(Collections.nCopies(strings.size(),
+				(List<Object>) null));
+			this.labels = labels;
+			this.counter = counter;
+			this.maxRows = maxRows;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static Internals of(final ResultsTable table) {
+			if (COLUMNS == null || STRING_COLUMNS == null || ROW_LABELS == null ||
+				COUNTER == null || MAX_ROWS == null || LAST_COLUMN == null)
+			{
+				return null;
+			}
+			try {
+				final double[][] columns = (double[][]) COLUMNS.get(table);
+				final int lastColumn = LAST_COLUMN.getInt(table);
+				final List<List<Object>> strings = new ArrayList<>();
+				final Map<?, ?> stringColumns = (Map<?, ?>) STRING_COLUMNS.get(table);
+				if (stringColumns != null) {
+					for (final Object cells : stringColumns.values()) {
+						if (!(cells instanceof List)) return null;
+						strings.add((List<Object>) cells);
+					}
+				}
+				final int counter = COUNTER.getInt(table);
+				final int maxRows = MAX_ROWS.getInt(table);
+				final String[] labels = (String[]) ROW_LABELS.get(table);
+				if (lastColumn >= columns.length) return null;
+				for (final double[] column : columns) {
+					if (column != null && column.length < maxRows) return null;
+				}
+				if (labels != null && labels.length < maxRows) return null;
+				return new Internals(columns, strings, labels, counter, maxRows);
+			}
+			catch (final Exception exc) {
+				return null;
+			}
+		}
+
+		private boolean store(final ResultsTable table) {
+			try {
+				COLUMNS.set(table, columns);
+				ROW_LABELS.set(table, labels);
+				MAX_ROWS.setInt(table, maxRows);
+				COUNTER.setInt(table, counter);
+				for (int i = 0; i < strings.size(); i++) {
+					final List<Object> cells = newStrings.get(i);
+					if (cells == null) continue;
+					strings.get(i).clear();
+					strings.get(i).addAll(cells);
+				}
+				return true;
+			}
+			catch (final Exception exc) {
+				return false;
+			}
+		}
+	}
+}
@@ -34,18 +34,28 @@ package net.imagej.legacy.convert;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 
+import net.imagej.table.DoubleColumn;
 import net.imagej.table.GenericColumn;
 
 import ij.measure.ResultsTable;
 
 /**
  * Wraps a {@link ResultsTable} column as a {@link GenericColumn}.
+ * <p>
+ * Columns which do not contain any strings are read straight from the
+ * {@link ResultsTable}'s backing {@code double[]}, see {@link #doubleView()}
+ * and {@link #doubleStream()}. Only columns which actually hold strings fall
+ * back to inspecting each cell.
+ * </p>
  *
  * @author Alison Walter
  */
@@ -79,6 +89,13 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 	public boolean contains(final Object o) {
 		if (o instanceof Number) {
 			final double value = ((Number) o).doubleValue();
+			final double[] values = backingArray();
+			if (values != null) {
+				for (int i = 0; i < table.size(); i++) {
+					if (values[i] == value) return true;
+				}
+				return false;
+			}
 			for (int i = 0; i < table.size(); i++) {
 				if (table.getValueAsDouble(col, i) == value) return true;
 			}
@@ -94,14 +111,42 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 		return false;
 	}
 
+	/**
+	 * Iterates over the column without copying it. Cells of columns which hold
+	 * no strings are boxed one at a time as they are visited.
+	 */
 	@Override
 	public Iterator<Object> iterator() {
-		throw new UnsupportedOperationException("iterator()");
+		final boolean numeric = !hasStrings();
+		return new Iterator<Object>() {
+
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < table.size();
+			}
+
+			@Override
+			public Object next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				final int i = index++;
+				if (numeric) return table.getValueAsDouble(col, i);
+				return get(i);
+			}
+		};
 	}
 
 	@Override
 	public Object[] toArray() {
 		final Object[] values = new Object[table.size()];
+		final double[] doubles = backingArray();
+		if (doubles != null) {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = doubles[i];
+			}
+			return values;
+		}
 		for (int i = 0; i < values.length; i++) {
 			if (checkString(i)) values[i] = table.getStringValue(col, i);
 			else values[i] = table.getValueAsDouble(col, i);
@@ -199,7 +244,8 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 
 	@Override
 	public Object get(final int index) {
-		if (checkString(index)) return table.getStringValue(col, index);
+		if (hasStrings() && checkString(index)) return table.getStringValue(col,
+			index);
 		return table.getValueAsDouble(col, index);
 	}
 
@@ -274,8 +320,74 @@ public class ResultsTableColumnWrapper extends GenericColumn {
 		throw new UnsupportedOperationException("setSize(int)");
 	}
 
+	// -- ResultsTableColumnWrapper methods --
+
+	/**
+	 * Gets a primitive view of this column which shares the
+	 * {@link ResultsTable}'s backing {@code double[]}, so no values are copied
+	 * or boxed. String cells read as {@code NaN}, as they do through
+	 * {@link ResultsTable#getValueAsDouble(int, int)}.
+	 * <p>
+	 * The view is only valid until the number of rows of the
+	 * {@link ResultsTable} changes, since the table then reallocates its
+	 * arrays. Growing the view likewise detaches it from the table. If the
+	 * backing array cannot be accessed, the returned column is a copy.
+	 * </p>
+	 */
+	public DoubleColumn doubleView() {
+		final DoubleColumn view = new DoubleColumn(getHeader());
+		final double[] values = doubles();
+		view.setArray(values == null ? copyValues() : values);
+		view.setSize(table.size());
+		return view;
+	}
+
+	/**
+	 * Streams the values of this column as primitive {@code double}s, straight
+	 * from the {@link ResultsTable}'s backing array when it is accessible.
+	 * String cells are {@code NaN}.
+	 */
+	public DoubleStream doubleStream() {
+		final double[] values = doubles();
+		if (values == null) return IntStream.range(0, table.size()).mapToDouble(
+			i -> table.getValueAsDouble(col, i));
+		return Arrays.stream(values, 0, table.size());
+	}
+
 	// -- Helper methods --
 
+	/**
+	 * Gets the backing array of this column, or null if it cannot be accessed.
+	 */
+	private double[] doubles() {
+		return ResultsTableArrays.column(table, col);
+	}
+
+	/**
+	 * Gets the backing array of this column if it can be accessed and the
+	 * column holds no strings, otherwise null.
+	 */
+	private double[] backingArray() {
+		return hasStrings() ? null : doubles();
+	}
+
+	private double[] copyValues() {
+		final double[] values = new double[table.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = table.getValueAsDouble(col, i);
+		}
+		return values;
+	}
+
+	/**
+	 * Checks if any cell of this column may hold a String. If the string cells
+	 * of the {@link ResultsTable} cannot be accessed, this conservatively
+	 * returns true.
+	 */
+	private boolean hasStrings() {
+		return ResultsTableArrays.hasStrings(table, col);
+	}
+
 	/**
 	 * Checks if the value at the given row in the column is a String.
 	 *
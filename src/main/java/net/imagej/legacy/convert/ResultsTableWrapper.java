@@ -35,17 +35,32 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import net.imagej.table.Column;
+import net.imagej.table.DoubleColumn;
 import net.imagej.table.GenericTable;
 
 import ij.measure.ResultsTable;
 
 /**
  * Wraps a {@link ij.measure.ResultsTable} as a {@link GenericTable}.
+ * <p>
+ * Row labels and column headers are looked up through hashed indices, which
+ * are kept up to date by mutations made through this wrapper. Since the
+ * {@link ij.measure.ResultsTable} may also be changed directly, each hit is
+ * verified against the table, and the index is rebuilt when the hit row lost
+ * its label or the table changed size. A miss falls back to scanning the
+ * table. So a label set directly on a row before the indexed one is only
+ * found first once the index is rebuilt.
+ * </p>
  *
  * @author Alison Walter
  */
@@ -53,6 +68,15 @@ public class ResultsTableWrapper implements GenericTable {
 
 	private final ij.measure.ResultsTable table;
 
+	/** Maps each row label to its first row, or null if not yet built. */
+	private Map<String, Integer> rowIndex;
+
+	/** The number of rows {@link #rowIndex} was built from. */
+	private int indexedRows;
+
+	/** Maps column headers to column indices, filled as headers are used. */
+	private final Map<String, Integer> columnIndex = new HashMap<>();
+
 	public ResultsTableWrapper(final ij.measure.ResultsTable table) {
 		this.table = table;
 	}
@@ -69,24 +93,12 @@ public class ResultsTableWrapper implements GenericTable {
 
 	@Override
 	public Column<? extends Object> get(final String colHeader) {
-		return new ResultsTableColumnWrapper(table, table.getColumnIndex(
-			colHeader));
+		return new ResultsTableColumnWrapper(table, findColumn(colHeader));
 	}
 
 	@Override
 	public Column<? extends Object> appendColumn() {
-		// Determine if empty cells are NaN or 0
-		double fill = 0;
-		try {
-			final Field f = ij.measure.ResultsTable.class.getDeclaredField(
-				"NaNEmptyCells");
-			f.setAccessible(true);
-			final boolean nan = (boolean) f.get(table);
-			fill = nan ? Double.NaN : 0;
-		}
-		catch (final Exception exc) {
-			// Keep as zero
-		}
+		final double fill = emptyCell();
 		// addValue does not increment the counter (row count) and sets the heading
 		// to "---"
 		table.addValue(table.getLastColumn() + 1, fill);
@@ -178,42 +190,67 @@ public class ResultsTableWrapper implements GenericTable {
 
 	@Override
 	public void appendRow() {
-		// Determine if empty cells are NaN or 0
-		double fill = 0;
-		try {
-			final Field f = ij.measure.ResultsTable.class.getDeclaredField(
-				"NaNEmptyCells");
-			f.setAccessible(true);
-			final boolean nan = (boolean) f.get(table);
-			fill = nan ? Double.NaN : 0;
-		}
-		catch (final Exception exc) {
-			// Keep as zero
-		}
+		final double fill = emptyCell();
 
+		final int row = table.size();
 		for (int i = 0; i <= table.getLastColumn(); i++) {
 			// setValue increments the column whereas addValue does not
-			table.setValue(i, table.size(), fill);
+			table.setValue(i, row, fill);
 		}
+		rowsAppended(row);
 	}
 
 	@Override
 	public void appendRow(final String header) {
 		appendRow(); // incremented row count
 		table.setLabel(header, table.size() - 1);
+		rowsAppended(table.size() - 1);
 	}
 
+	/** Appends a block of rows, growing each IJ1 column at most once. */
 	@Override
 	public void appendRows(final int count) {
-		for (int i = 0; i < count; i++) {
-			appendRow();
+		if (count <= 0) return;
+		final int start = table.size();
+		if (ResultsTableArrays.appendRows(table, count, emptyCell())) {
+			rowsAppended(start);
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				appendRow();
+			}
 		}
 	}
 
 	@Override
 	public void appendRows(final String... headers) {
+		final int start = table.size();
+		appendRows(headers.length);
 		for (int i = 0; i < headers.length; i++) {
-			appendRow(headers[i]);
+			table.setLabel(headers[i], start + i);
+		}
+		rowsAppended(start);
+	}
+
+	/**
+	 * Sets the first {@code count} cells of the given column at once, rather
+	 * than cell by cell. Rows are appended as needed.
+	 */
+	public void setValues(final int col, final double[] values,
+		final int count)
+	{
+		if (count <= 0) return;
+		// let the ResultsTable allocate the column, then fill it in bulk
+		table.setValue(col, 0, values[0]);
+		if (count > table.size()) appendRows(count - table.size());
+		final double[] column = ResultsTableArrays.column(table, col);
+		if (column != null && !ResultsTableArrays.hasStrings(table, col)) {
+			System.arraycopy(values, 1, column, 1, count - 1);
+		}
+		else {
+			for (int i = 1; i < count; i++) {
+				table.setValue(col, i, values[i]);
+			}
 		}
 	}
 
@@ -240,30 +277,48 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public void removeRow(final int row) {
 		table.deleteRow(row);
+		rowIndex = null;
 	}
 
 	@Override
 	public void removeRow(final String header) {
-		for (int i = 0; i < table.size(); i++) {
-			if (table.getLabel(i).equals(header)) {
-				table.deleteRow(i);
-				break;
-			}
-		}
+		final int row = findRow(header);
+		if (row >= 0) removeRow(row);
 	}
 
+	/**
+	 * Removes a range of rows, shifting each IJ1 column only once. Like
+	 * {@link ij.measure.ResultsTable#deleteRow(int)}, rows outside the table
+	 * are ignored.
+	 */
 	@Override
 	public void removeRows(final int row, final int count) {
-		for (int i = 0; i < count; i++) {
-			table.deleteRow(i + row);
-		}
+		final int start = Math.max(row, 0);
+		final int end = Math.min(row + count, table.size());
+		if (start >= end) return;
+		deleteRows(IntStream.range(start, end).toArray());
 	}
 
+	/**
+	 * Removes the first row carrying each of the given labels. A label which
+	 * is given several times removes that many rows.
+	 */
 	@Override
 	public void removeRows(final String... headers) {
-		for (int i = 0; i < headers.length; i++) {
-			removeRow(headers[i]);
+		// resolve all rows up front, so the index is only rebuilt once
+		final Set<Integer> rows = new HashSet<>();
+		for (final String header : headers) {
+			int row = findRow(header);
+			if (row >= 0 && rows.contains(row)) {
+				// a repeated label; find its next occurrence
+				do {
+					row = nextRow(header, row + 1);
+				}
+				while (row >= 0 && rows.contains(row));
+			}
+			if (row >= 0) rows.add(row);
 		}
+		deleteRows(rows.stream().mapToInt(Integer::intValue).sorted().toArray());
 	}
 
 	@Override
@@ -280,11 +335,12 @@ public class ResultsTableWrapper implements GenericTable {
 	@SuppressWarnings("deprecation")
 	public void setColumnHeader(final int col, final String header) {
 		table.setHeading(col, header);
+		columnIndex.clear();
 	}
 
 	@Override
 	public int getColumnIndex(final String header) {
-		return table.getColumnIndex(header);
+		return findColumn(header);
 	}
 
 	@Override
@@ -295,14 +351,12 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public void setRowHeader(final int row, final String header) {
 		table.setLabel(header, row);
+		rowIndex = null;
 	}
 
 	@Override
 	public int getRowIndex(final String header) {
-		for (int i = 0; i < table.size(); i++) {
-			if (table.getLabel(i).equals(header)) return i;
-		}
-		return -1;
+		return findRow(header);
 	}
 
 	/**
@@ -322,9 +376,15 @@ public class ResultsTableWrapper implements GenericTable {
 	 */
 	@Override
 	public void set(final String colHeader, final int row, final Object value) {
-		if (value instanceof String) table.setValue(colHeader, row, (String) value);
-		else if (value instanceof Number) table.setValue(colHeader, row,
-			((Number) value).doubleValue());
+		final int col = findColumn(colHeader);
+		if (col < 0) {
+			// let the ResultsTable create the column
+			if (value instanceof String) table.setValue(colHeader, row,
+				(String) value);
+			else if (value instanceof Number) table.setValue(colHeader, row,
+				((Number) value).doubleValue());
+		}
+		else set(col, row, value);
 	}
 
 	@Override
@@ -335,9 +395,7 @@ public class ResultsTableWrapper implements GenericTable {
 
 	@Override
 	public Object get(final String colHeader, final int row) {
-		if (checkString(row, table.getColumnIndex(colHeader))) return table
-			.getStringValue(colHeader, row);
-		return table.getValueAsDouble(table.getColumnIndex(colHeader), row);
+		return get(findColumn(colHeader), row);
 	}
 
 	@Override
@@ -385,8 +443,16 @@ public class ResultsTableWrapper implements GenericTable {
 		return copy;
 	}
 
+	/**
+	 * Appends the given column. A {@link DoubleColumn} is copied in bulk from
+	 * its backing array, appending rows to the table as needed.
+	 */
 	@Override
 	public boolean add(final Column<? extends Object> column) {
+		if (column instanceof DoubleColumn && column.size() > 0) {
+			addDoubles((DoubleColumn) column);
+			return true;
+		}
 		final int colIndex = table.getLastColumn() + 1;
 		for (int i = 0; i < column.size(); i++) {
 			if (column.get(i) instanceof Number) table.setValue(colIndex, i,
@@ -438,6 +504,8 @@ public class ResultsTableWrapper implements GenericTable {
 	@Override
 	public void clear() {
 		table.reset();
+		rowIndex = null;
+		columnIndex.clear();
 	}
 
 	@Override
@@ -503,6 +571,116 @@ public class ResultsTableWrapper implements GenericTable {
 
 // -- Helper methods --
 
+	/** Determines if empty cells are NaN or 0. */
+	private double emptyCell() {
+		try {
+			final Field f = ij.measure.ResultsTable.class.getDeclaredField(
+				"NaNEmptyCells");
+			f.setAccessible(true);
+			return (boolean) f.get(table) ? Double.NaN : 0;
+		}
+		catch (final Exception exc) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Deletes the given rows in one pass if possible, otherwise one by one from
+	 * the bottom up.
+	 *
+	 * @param rows distinct row indices in ascending order
+	 */
+	private void deleteRows(final int[] rows) {
+		if (rows.length == 0) return;
+		if (!ResultsTableArrays.deleteRows(table, rows)) {
+			for (int i = rows.length - 1; i >= 0; i--) {
+				table.deleteRow(rows[i]);
+			}
+		}
+		rowIndex = null;
+	}
+
+	@SuppressWarnings("deprecation")
+	private void addDoubles(final DoubleColumn column) {
+		final int col = table.getLastColumn() + 1;
+		setValues(col, column.getArray(), column.size());
+		if (column.getHeader() != null) table.setHeading(col, column.getHeader());
+	}
+
+	/**
+	 * Gets the row with the given label, or -1 if there is none. The index is
+	 * rebuilt first if the table changed size, or if the row found does not
+	 * carry the label any more.
+	 */
+	private int findRow(final String label) {
+		if (label == null) return -1;
+		if (rowIndex == null || indexedRows != table.size()) indexRows();
+		Integer row = rowIndex.get(label);
+		if (row != null && !hasLabel(row, label)) {
+			indexRows();
+			row = rowIndex.get(label);
+		}
+		if (row != null) return row;
+		// the label may have been set directly on the table
+		final int found = nextRow(label, 0);
+		if (found >= 0) indexRows();
+		return found;
+	}
+
+	private boolean hasLabel(final int row, final String label) {
+		return row < table.size() && label.equals(table.getLabel(row));
+	}
+
+	/** Scans for the given label, starting at the given row. */
+	private int nextRow(final String label, final int start) {
+		for (int i = start; i < table.size(); i++) {
+			if (label.equals(table.getLabel(i))) return i;
+		}
+		return -1;
+	}
+
+	private void indexRows() {
+		rowIndex = new HashMap<>();
+		indexedRows = 0;
+		rowsAppended(0);
+	}
+
+	/**
+	 * Indexes the labels of the rows from the given row on, which were just
+	 * appended or labeled. Entries left behind by the old labels of these rows
+	 * are not removed; {@link #findRow(String)} notices them on a hit.
+	 */
+	private void rowsAppended(final int start) {
+		if (rowIndex == null) return;
+		if (indexedRows < start) {
+			rowIndex = null;
+			return;
+		}
+		// bottom up, so the first of these rows wins
+		for (int i = table.size() - 1; i >= start; i--) {
+			final String label = table.getLabel(i);
+			if (label == null) continue;
+			final Integer row = rowIndex.get(label);
+			if (row == null || row >= start) rowIndex.put(label, i);
+		}
+		indexedRows = table.size();
+	}
+
+	/**
+	 * Gets the column with the given header, or
+	 * {@link ij.measure.ResultsTable#COLUMN_NOT_FOUND}. A cached column is only
+	 * returned if it still carries the header.
+	 */
+	private int findColumn(final String header) {
+		if (header == null) return table.getColumnIndex(header);
+		final Integer col = columnIndex.get(header);
+		if (col != null && header.equals(table.getColumnHeading(col))) return col;
+		final int index = table.getColumnIndex(header);
+		if (index < 0) columnIndex.remove(header);
+		else columnIndex.put(header, index);
+		return index;
+	}
+
 	/**
 	 * Checks if the value at the given position is a String.
 	 *
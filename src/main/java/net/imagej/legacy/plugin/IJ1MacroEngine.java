@@ -38,6 +38,7 @@ import java.lang.reflect.Array;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
+import java.util.function.Consumer;
 
 import javax.script.Bindings;
 import javax.script.ScriptException;
@@ -100,9 +101,18 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 
 	private static ThreadLocal<Object> interpreters = new ThreadLocal<>();
 
+	/** Input variables waiting to be defined in the next interpreter. */
+	private static ThreadLocal<Consumer<Object>> injectors = new ThreadLocal<>();
+
 	/** Called by ImageJ 1.x at the beginning of each macro execution. */
 	public static void saveInterpreter() {
-		interpreters.set(IJ1Helper.getInterpreter());
+		final Object interpreter = IJ1Helper.getInterpreter();
+		interpreters.set(interpreter);
+		final Consumer<Object> injector = injectors.get();
+		if (injector != null) {
+			injectors.remove();
+			injector.accept(interpreter);
+		}
 	}
 
 	/**
@@ -128,22 +138,50 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 		final String method = "\"" + getClass().getName() + ".saveInterpreter\"";
 		pre.append("call(" + method + ");\n");
 
-		// prepend variable assignments to the macro
-		for (final Entry<String, Object> entry : inVars.entrySet()) {
-			appendVar(pre, entry.getKey(), entry.getValue());
-		}
-
 		// run the macro!
-		final String returnValue = ij1Helper.runMacro(pre + macro);
+		final boolean compiled = ij1Helper.canRunCompiledMacros();
+		final String returnValue;
+		if (compiled) {
+			// define the inputs directly in the interpreter, so that the macro
+			// text stays the same and its tokenized form can be reused
+			final LinkedHashMap<String, Object> vars = new LinkedHashMap<>();
+			for (final Entry<String, Object> entry : inVars.entrySet()) {
+				if (isLegalName(entry.getKey())) {
+					vars.put(entry.getKey(), entry.getValue());
+				}
+			}
+			injectors.set(interpreter -> ij1Helper.setVariables(interpreter, vars));
+			try {
+				returnValue = ij1Helper.runCompiledMacro(pre + macro);
+			}
+			finally {
+				injectors.remove();
+			}
+		}
+		else {
+			// prepend variable assignments to the macro
+			for (final Entry<String, Object> entry : inVars.entrySet()) {
+				appendVar(pre, entry.getKey(), entry.getValue());
+			}
+			returnValue = ij1Helper.runMacro(pre + macro);
+		}
 
 		// retrieve the interpreter used
 		final Object interpreter = interpreters.get();
 		interpreters.remove();
 
 		// populate bindings with the results
-		for (final String var : ij1Helper.getVariables(interpreter)) {
-			final String name = var.substring(0, var.indexOf('\t'));
-			engineScopeBindings.put(name, ij1Helper.getVariable(interpreter, name));
+		if (compiled) {
+			if (interpreter != null) {
+				engineScopeBindings.putAll(ij1Helper.getVariableValues(interpreter));
+			}
+		}
+		else {
+			for (final String var : ij1Helper.getVariables(interpreter)) {
+				final String name = var.substring(0, var.indexOf('\t'));
+				engineScopeBindings.put(name, ij1Helper.getVariable(interpreter,
+					name));
+			}
 		}
 
 		if (module != null) {
@@ -198,15 +236,20 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 	private void appendVar(final StringBuilder pre, //
 		final String key, final Object value)
 	{
-		// check for illegal identifiers
-		if (ArrayUtils.contains(RESERVED_WORDS, key)) return;
-		if (key.matches(".*[^a-zA-Z0-9_].*")) return;
+		if (!isLegalName(key)) return;
 
-		if (value == null) return;
 		pre.append(key).append(" = ").append(varValue(value, true)).append(";\n");
 	}
 
+	/** Checks whether the given key can be used as a macro variable. */
+	private boolean isLegalName(final String key) {
+		if (ArrayUtils.contains(RESERVED_WORDS, key)) return false;
+		return !key.matches(".*[^a-zA-Z0-9_].*");
+	}
+
 	private String varValue(final Object v, final boolean top) {
+		// NB: like the compiled path, null becomes NaN
+		if (v == null) return "NaN";
 		if (top && v.getClass().isArray()) {
 			// NB: ImageJ 1.x only supports 1-dimensional arrays.
 			final StringBuilder sb = new StringBuilder();
@@ -231,10 +274,31 @@ public class IJ1MacroEngine extends AbstractScriptEngine {
 	}
 
 	private String quote(final String value) {
-		String quoted = value.replaceAll("([\"\\\\])", "\\\\$1");
-		quoted = quoted.replaceAll("\f", "\\\\f").replaceAll("\n", "\\\\n");
-		quoted = quoted.replaceAll("\r", "\\\\r").replaceAll("\t", "\\\\t");
-		return quoted;
+		final StringBuilder quoted = new StringBuilder(value.length() + 16);
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+				case '"':
+				case '\\':
+					quoted.append('\\').append(c);
+					break;
+				case '\f':
+					quoted.append("\\f");
+					break;
+				case '\n':
+					quoted.append("\\n");
+					break;
+				case '\r':
+					quoted.append("\\r");
+					break;
+				case '\t':
+					quoted.append("\\t");
+					break;
+				default:
+					quoted.append(c);
+			}
+		}
+		return quoted.toString();
 	}
 
 	private Object convertToImagePlus(final Object value) {
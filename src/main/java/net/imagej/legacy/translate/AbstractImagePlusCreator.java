@@ -44,6 +44,7 @@ import io.scif.Metadata;
 import io.scif.img.SCIFIOImgPlus;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -56,6 +57,8 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 import org.scijava.AbstractContextual;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
 
 /**
  * Abstract superclass for {@link ImagePlusCreator} implementations. Provides
@@ -67,6 +70,18 @@ public abstract class AbstractImagePlusCreator extends AbstractContextual
 	implements ImagePlusCreator
 {
 
+	/**
+	 * System property holding the size, in megabytes, above which the legacy
+	 * ImageJ copy of a {@link Dataset} is kept in a {@link MappedVirtualStack}
+	 * instead of on the Java heap. Memory mapping is off when the property is
+	 * not set.
+	 */
+	public static final String MAPPED_THRESHOLD_PROPERTY =
+		"imagej.legacy.mappedStackMB";
+
+	@Parameter(required = false)
+	private LogService logService;
+
 	/**
 	 * Sets the {@link Calibration} data on the provided {@link ImagePlus}.
 	 */
@@ -98,6 +113,43 @@ public abstract class AbstractImagePlusCreator extends AbstractContextual
 		}
 	}
 
+	/**
+	 * Makes a {@link MappedVirtualStack} for a {@link Dataset} if the legacy
+	 * ImageJ copy of the Dataset would be larger than the threshold given by
+	 * the {@link #MAPPED_THRESHOLD_PROPERTY} system property.
+	 * 
+	 * @param ds The Dataset to be translated
+	 * @param bitDepth The legacy ImageJ bit depth of the planes
+	 * @return The stack, or null if the Dataset is below the threshold or the
+	 *         stack could not be created
+	 */
+	protected MappedVirtualStack makeMappedStack(final Dataset ds,
+		final int bitDepth)
+	{
+		final Long threshold = Long.getLong(MAPPED_THRESHOLD_PROPERTY);
+		if (threshold == null || threshold < 0) return null;
+		final int[] dimIndices = new int[5];
+		final int[] dimValues = new int[5];
+		LegacyUtils.getImagePlusDims(ds, dimIndices, dimValues);
+		final int w = dimValues[0];
+		final int h = dimValues[1];
+		int planes = dimValues[2] * dimValues[3] * dimValues[4];
+		if (bitDepth == 24 && ds.isRGBMerged()) planes /= 3;
+		final long bytes = (long) w * h * planes * (bitDepth == 8 ? 1 :
+			bitDepth == 16 ? 2 : 4);
+		if (bytes <= threshold << 20) return null;
+		try {
+			return new MappedVirtualStack(w, h, planes, bitDepth);
+		}
+		catch (final IOException exc) {
+			if (logService != null) {
+				logService.warn("Cannot memory-map " + ds.getName() +
+					"; keeping it on the heap", exc);
+			}
+			return null;
+		}
+	}
+
 	protected ImagePlus makeImagePlus(Dataset ds, ImageStack stack) {
 		final int[] dimIndices = new int[5];
 		final int[] dimValues = new int[5];
@@ -114,7 +114,10 @@ public class ColorImagePlusCreator extends AbstractImagePlusCreator
 			imp = cellImgCase(ds);
 		}
 		else {
-			imp = makeColorImagePlus(ds);
+			final MappedVirtualStack mapped =
+				ds.isRGBMerged() ? makeMappedStack(ds, 24) : null;
+			imp = mapped == null ? makeColorImagePlus(ds) : //
+				makeMappedColorImagePlus(ds, mapped);
 			pixelHarmonizer.updateLegacyImage(ds, imp);
 		}
 		metadataHarmonizer.updateLegacyImage(ds, imp);
@@ -181,6 +184,21 @@ public class ColorImagePlusCreator extends AbstractImagePlusCreator
 		return makeImagePlus(ds, c, z, t, stack);
 	}
 
+	/**
+	 * Makes a color {@link ImagePlus} from a merged color {@link Dataset} whose
+	 * planes live in the given {@link MappedVirtualStack}. The data values and
+	 * metadata are not assigned.
+	 */
+	private ImagePlus makeMappedColorImagePlus(final Dataset ds,
+		final MappedVirtualStack stack)
+	{
+		final int[] dimIndices = new int[5];
+		final int[] dimValues = new int[5];
+		LegacyUtils.getImagePlusDims(ds, dimIndices, dimValues);
+		return makeImagePlus(ds, dimValues[2] / 3, dimValues[3], dimValues[4],
+			stack);
+	}
+
 	private ImagePlus cellImgCase(Dataset ds) {
 		return makeImagePlus(ds, new MergedRgbVirtualStack(ds));
 	}
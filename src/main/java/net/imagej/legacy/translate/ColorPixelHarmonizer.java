@@ -35,6 +35,8 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ImageProcessor;
 
+import java.util.BitSet;
+
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
 import net.imglib2.RandomAccess;
@@ -43,7 +45,8 @@ import net.imglib2.util.IntervalIndexer;
 
 /**
  * Supports bidirectional synchronization between color {@link ImagePlus}es and
- * merged {@link Dataset}s.
+ * merged {@link Dataset}s. Planes are harmonized in parallel by
+ * {@link ParallelPlanes}.
  * 
  * @author Barry DeZonia
  */
@@ -51,8 +54,7 @@ public class ColorPixelHarmonizer implements DataHarmonizer {
 
 	// -- instance variables --
 
-	private double[] savedPlane;
-	private int savedPos;
+	private PlaneSnapshot savedPlane;
 
 	// -- public api --
 
@@ -64,24 +66,35 @@ public class ColorPixelHarmonizer implements DataHarmonizer {
 	 * Users of ColorPixelHarmonizer can pass it a copy of the current plane of
 	 * pixels of an ImagePlus.
 	 * 
-	 * @param pos Slice number of the current plane
-	 * @param plane Pixels copy of the current plane
+	 * @param plane Copy of the current plane, or null to forget the last one
 	 */
-	public void savePlane(int pos, double[] plane) {
-		savedPos = pos;
+	public void savePlane(final PlaneSnapshot plane) {
 		savedPlane = plane;
 	}
 
 	/**
 	 * Assigns the data values of a color {@link Dataset} from a paired
 	 * {@link ImagePlus}. Assumes the Dataset and ImagePlus have compatible
-	 * dimensions and are both of type color. Gets values via
-	 * {@link ImageProcessor}::get(). Does not change the Dataset's metadata.
+	 * dimensions and are both of type color. Unpacks the int[] pixels of each
+	 * plane a row at a time with an {@link RgbPlaneCopier}. If the ImagePlus is
+	 * a {@link MergedRgbVirtualStack} that writes through to the Dataset only
+	 * its current plane is written. Does not change the Dataset's metadata.
 	 */
 	@Override
 	public void updateDataset(final Dataset ds, final ImagePlus imp) {
-		final int xIndex = ds.dimensionIndex(Axes.X);
-		final int yIndex = ds.dimensionIndex(Axes.Y);
+		updateDataset(ds, imp, null);
+	}
+
+	/**
+	 * As {@link #updateDataset(Dataset, ImagePlus)}, but only copies the given
+	 * planes.
+	 * 
+	 * @param planes The 0-based indices of the legacy ImageJ planes to copy, or
+	 *          null to copy all of them
+	 */
+	public void updateDataset(final Dataset ds, final ImagePlus imp,
+		final BitSet planes)
+	{
 		final int cIndex = ds.dimensionIndex(Axes.CHANNEL);
 		final int zIndex = ds.dimensionIndex(Axes.Z);
 		final int tIndex = ds.dimensionIndex(Axes.TIME);
@@ -91,48 +104,42 @@ public class ColorPixelHarmonizer implements DataHarmonizer {
 		final int zSize = imp.getNSlices();
 		final int tSize = imp.getNFrames();
 		final ImageStack stack = imp.getStack();
-		int imagejPlaneNumber = 1;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		int slice = imp.getCurrentSlice();
-		for (int t = 0; t < tSize; t++) {
-			if (tIndex >= 0) accessor.setPosition(t, tIndex);
-			for (int z = 0; z < zSize; z++) {
-				if (zIndex >= 0) accessor.setPosition(z, zIndex);
-				for (int c = 0; c < cSize; c++) {
-					final ImageProcessor proc = stack.getProcessor(imagejPlaneNumber++);
-					// TEMP HACK THAT FIXES VIRT STACK PROB BUT SLOW
-					// imp.setPosition(planeNum - 1);
-					for (int y = 0; y < ySize; y++) {
-						accessor.setPosition(y, yIndex);
-						for (int x = 0; x < xSize; x++) {
-							accessor.setPosition(x, xIndex);
-							// NOTE: to propagate a VirtualStack's first plane pixel changes
-							// we save it early in the harmonization process and refer to it
-							// later. This code is part of that process
-							final int value;
-							if (savedPos == imagejPlaneNumber - 1) {
-								int index = xSize * y + x;
-								value = (int) savedPlane[index];
-							}
-							else {
-								value = proc.get(x, y);
-							}
-							final int rValue = (value >> 16) & 0xff;
-							final int gValue = (value >> 8) & 0xff;
-							final int bValue = (value >> 0) & 0xff;
-							accessor.setPosition(c * 3, cIndex);
-							accessor.get().setReal(rValue);
-							accessor.fwd(cIndex);
-							accessor.get().setReal(gValue);
-							accessor.fwd(cIndex);
-							accessor.get().setReal(bValue);
-						}
-					}
-				}
-			}
+		// NOTE: to propagate a VirtualStack's first plane pixel changes we save it
+		// early in the harmonization process and refer to it later. This code is
+		// part of that process
+		final PlaneSnapshot saved = savedPlane;
+		if (stack instanceof MergedRgbVirtualStack &&
+			((MergedRgbVirtualStack) stack).writesTo(ds))
+		{
+			// NB - planes assigned to the stack are already in the Dataset. Only the
+			// current plane can hold changes that were not written through yet.
+			final int pos = saved == null ? 0 : saved.getPosition();
+			if (pos > 0) stack.setPixels(saved.getPixels(pos), pos);
+			((MergedRgbVirtualStack) stack).updateDataset();
+			return;
 		}
-		// NOTE: the stack.getProcessor() calls that have been called so far have
+		if (planes != null && planes.isEmpty()) return;
+		int slice = imp.getCurrentSlice();
+		final int numDims = ds.numDimensions();
+		ParallelPlanes.forEachPlane(cSize * zSize * tSize, (long) xSize * ySize,
+			true, () -> new Worker(ds, xSize, ySize, numDims), (worker, p) -> {
+				if (planes != null && !planes.get(p)) return;
+				final int c = p % cSize;
+				final int z = (p / cSize) % zSize;
+				final int t = p / (cSize * zSize);
+				final long[] pos = worker.pos;
+				if (tIndex >= 0) pos[tIndex] = t;
+				if (zIndex >= 0) pos[zIndex] = z;
+				if (cIndex >= 0) pos[cIndex] = c * 3;
+				final int imagejPlaneNumber = p + 1;
+				final Object savedPixels = saved == null ? null : //
+					saved.getPixels(imagejPlaneNumber);
+				final int[] pixels = savedPixels instanceof int[] ? //
+					(int[]) savedPixels : //
+					(int[]) ParallelPlanes.getPixels(stack, imagejPlaneNumber);
+				worker.copier.toDataset(pos, pixels);
+			});
+		// NOTE: the stack.getPixels() calls that have been made so far have
 		// changed the current plane's pixels for virtual stacks. So reset pixels
 		// to correct plane's values
 		stack.getProcessor(slice);
@@ -144,7 +151,8 @@ public class ColorPixelHarmonizer implements DataHarmonizer {
 	 * Assigns the data values of a color {@link ImagePlus} from a paired
 	 * {@link Dataset}. Assumes the Dataset and ImagePlus have compatible
 	 * dimensions and that the data planes are not directly mapped. Also assumes
-	 * that the Dataset has isRGBMerged() true. Sets values via
+	 * that the Dataset has isRGBMerged() true. Merged planes are packed a row at
+	 * a time by an {@link RgbPlaneCopier}; other Datasets are set via
 	 * {@link ImageProcessor}::set(). Does not change the ImagePlus' metadata.
 	 */
 	@Override
@@ -158,63 +166,66 @@ public class ColorPixelHarmonizer implements DataHarmonizer {
 		final int cSize = imp.getNChannels();
 		final int zSize = imp.getNSlices();
 		final int tSize = imp.getNFrames();
-		int tIndex = Math.max(cIndex, zIndex) + 1;
-		if (tIndex == 1) tIndex = yIndex + 1;
+		final int tIndex = firstTimeIndex(yIndex, cIndex, zIndex);
+		final boolean rgbMerged = ds.isRGBMerged();
 		final ImageStack stack = imp.getStack();
-		int imagejPlaneNumber = 1;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
 		int slice = imp.getCurrentSlice();
 		final long[] tPos = new long[ds.numDimensions() - tIndex];
 		for (int i = tIndex; i<ds.numDimensions(); i++) {
 			tPos[i - tIndex] = ds.dimension(i);
 		}
-		for (int t = 0; t < tSize; t++) {
-			updatePosition(accessor, tPos, t, tIndex);
-			for (int z = 0; z < zSize; z++) {
-				if (zIndex >= 0) accessor.setPosition(z, zIndex);
-				for (int c = 0; c < cSize; c++) {
-					final ImageProcessor proc = stack.getProcessor(imagejPlaneNumber++);
-					if (!ds.isRGBMerged() && cIndex >= 0) {
-						accessor.setPosition(c, cIndex);
-					}
-					// TEMP HACK THAT FIXES VIRT STACK PROB BUT SLOW
-					// imp.setPosition(planeNum - 1);
+		final int numDims = ds.numDimensions();
+		// NB - a virtual stack shares its processor between planes, so never
+		// spread one over threads
+		ParallelPlanes.forEachPlane(cSize * zSize * tSize, (long) xSize * ySize,
+			!stack.isVirtual(), () -> new Worker(ds, xSize, ySize, numDims), (worker,
+				p) -> {
+				final int c = p % cSize;
+				final int z = (p / cSize) % zSize;
+				final int t = p / (cSize * zSize);
+				final ImageProcessor proc = stack.getProcessor(p + 1);
+				if (rgbMerged) {
+					final long[] pos = worker.pos;
+					updatePosition(pos, tPos, t, tIndex);
+					if (zIndex >= 0) pos[zIndex] = z;
+					if (cIndex >= 0) pos[cIndex] = 3 * c;
+					worker.copier.toLegacy(pos, (int[]) proc.getPixels());
+				}
+				else {
+					final RandomAccess<? extends RealType<?>> accessor =
+						worker.accessor();
+					updatePosition(accessor, tPos, t, tIndex);
+					if (zIndex >= 0) accessor.setPosition(z, zIndex);
+					if (cIndex >= 0) accessor.setPosition(c, cIndex);
 					for (int y = 0; y < ySize; y++) {
 						accessor.setPosition(y, yIndex);
 						for (int x = 0; x < xSize; x++) {
 							accessor.setPosition(x, xIndex);
-
-							int intValue = 0;
-							if (ds.isRGBMerged()) {
-								accessor.setPosition(3 * c, cIndex);
-								final int rValue = ((int) accessor.get().getRealDouble()) & 0xff;
-
-								accessor.fwd(cIndex);
-								final int gValue = ((int) accessor.get().getRealDouble()) & 0xff;
-
-								accessor.fwd(cIndex);
-								final int bValue = ((int) accessor.get().getRealDouble()) & 0xff;
-
-								intValue =
-										(0xff << 24) | (rValue << 16) | (gValue << 8) | (bValue);
-							}
-							else {
-								intValue = ((int)accessor.get().getRealDouble());
-							}
-
-							proc.set(x, y, intValue);
+							proc.set(x, y, (int) accessor.get().getRealDouble());
 						}
 					}
 				}
-			}
-		}
+				if (stack instanceof MappedVirtualStack) {
+					stack.setPixels(proc.getPixels(), p + 1);
+				}
+			});
 		// NOTE: the stack.getProcessor() calls that have been called so far have
 		// changed the current plane's pixels for virtual stacks. So reset pixels
 		// to correct plane's values
 		stack.getProcessor(slice);
 	}
 
+	/**
+	 * Returns the index of the first Dataset axis that legacy ImageJ folds into
+	 * its frames.
+	 */
+	private int firstTimeIndex(final int yIndex, final int cIndex,
+		final int zIndex)
+	{
+		final int tIndex = Math.max(cIndex, zIndex) + 1;
+		return tIndex == 1 ? yIndex + 1 : tIndex;
+	}
+
 	/**
 	 * Sets the positions of the given accessor, from [start, start +
 	 * lengths.length], by converting the given index to a position, using the
@@ -233,4 +244,41 @@ public class ColorPixelHarmonizer implements DataHarmonizer {
 			}
 		}
 	}
+
+	/**
+	 * As {@link #updatePosition(RandomAccess, long[], int, int)}, but sets the
+	 * entries of a position array.
+	 */
+	private void updatePosition(long[] pos, long[] lengths, int index,
+		int start)
+	{
+		// IntervalIndexer throws an exception if given an empty array.
+		if (lengths.length > 0) {
+			long[] position = new long[lengths.length];
+			IntervalIndexer.indexToPosition(index, lengths, position);
+			System.arraycopy(position, 0, pos, start, lengths.length);
+		}
+	}
+
+	/** Per thread state used while harmonizing planes. */
+	private static class Worker {
+
+		private final Dataset ds;
+		private final RgbPlaneCopier copier;
+		private final long[] pos;
+		private RandomAccess<? extends RealType<?>> accessor;
+
+		public Worker(final Dataset ds, final int w, final int h,
+			final int numDims)
+		{
+			this.ds = ds;
+			copier = new RgbPlaneCopier(ds, w, h);
+			pos = new long[numDims];
+		}
+
+		public RandomAccess<? extends RealType<?>> accessor() {
+			if (accessor == null) accessor = ds.getImgPlus().randomAccess();
+			return accessor;
+		}
+	}
 }
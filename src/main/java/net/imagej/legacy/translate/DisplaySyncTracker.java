@@ -0,0 +1,313 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imagej.Data;
+import net.imagej.display.ImageDisplay;
+import net.imagej.event.DataUpdatedEvent;
+import net.imagej.event.DatasetRestructuredEvent;
+
+import org.scijava.AbstractContextual;
+import org.scijava.Context;
+import org.scijava.display.Display;
+import org.scijava.display.event.DisplayUpdatedEvent;
+import org.scijava.event.EventHandler;
+
+/**
+ * Keeps track of which {@link ImageDisplay}s have changed since they were last
+ * harmonized with their paired {@link ImagePlus}.
+ * <p>
+ * Every display has a version number that is bumped whenever one of its data
+ * objects publishes a {@link DataUpdatedEvent} or
+ * {@link DatasetRestructuredEvent}, or the display itself publishes a
+ * {@link DisplayUpdatedEvent}. The {@link Harmonizer} records the version it
+ * synchronized, and skips the expensive parts of the next modern to legacy
+ * harmonization when nothing has changed since (see ticket #546).
+ * </p>
+ * <p>
+ * The {@link ImagePlus} may be changed too, by ImageJ 1.x code that never
+ * tells the modern side. So along with the version, the tracker records the
+ * shape of the ImagePlus and a fingerprint of each of its pixel arrays (see
+ * {@link PlaneChangeDetector}), and a pair whose ImagePlus no longer matches
+ * them needs to be synced as well. Planes of a virtual stack live outside
+ * the ImagePlus, so for those only the processor's pixels are checked.
+ * </p>
+ * <p>
+ * Tracking can be turned off by setting the
+ * {@code imagej.legacy.trackDisplayChanges} system property to {@code false},
+ * in which case every display is always considered changed.
+ * </p>
+ */
+public class DisplaySyncTracker extends AbstractContextual {
+
+	// -- instance variables --
+
+	private final Map<ImageDisplay, Entry> entries = new WeakHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private volatile boolean enabled = Boolean.parseBoolean(System.getProperty(
+		"imagej.legacy.trackDisplayChanges", "true"));
+
+	// -- constructor --
+
+	public DisplaySyncTracker(final Context context) {
+		setContext(context);
+	}
+
+	// -- DisplaySyncTracker methods --
+
+	/** Returns whether changes are being tracked at all. */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns change tracking on or off. Turning it off forgets all recorded
+	 * synchronizations.
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) invalidateAll();
+	}
+
+	/**
+	 * Gets the current version of a display. Pass the value to
+	 * {@link #markSynced(ImageDisplay, ImagePlus, long)} once a harmonization
+	 * that started at this version has finished.
+	 */
+	public long getVersion(final ImageDisplay display) {
+		synchronized (entries) {
+			// NB - start tracking now so no later change can be missed
+			return entry(display).version;
+		}
+	}
+
+	/**
+	 * Returns true if the given display or {@link ImagePlus} has changed since
+	 * they were last synced with each other, or they never were at all.
+	 * Updates the hit and miss counts.
+	 */
+	public boolean needsSync(final ImageDisplay display, final ImagePlus imp) {
+		boolean dirty = true;
+		if (enabled) {
+			final ImpState state;
+			synchronized (entries) {
+				final Entry entry = entries.get(display);
+				state = entry == null || !entry.isSyncedWith(imp) ? null
+					: entry.impState;
+			}
+			// NB - fingerprint outside the lock; it reads every pixel
+			dirty = state == null || !state.equals(new ImpState(imp));
+		}
+		if (dirty) misses.incrementAndGet();
+		else hits.incrementAndGet();
+		return dirty;
+	}
+
+	/**
+	 * Records that the given display and {@link ImagePlus} were in sync as of
+	 * the given display version.
+	 */
+	public void markSynced(final ImageDisplay display, final ImagePlus imp,
+		final long version)
+	{
+		if (!enabled) return;
+		final ImpState state = new ImpState(imp);
+		synchronized (entries) {
+			final Entry entry = entry(display);
+			entry.syncedVersion = version;
+			entry.syncedImp = new WeakReference<>(imp);
+			entry.impState = state;
+		}
+	}
+
+	/**
+	 * Records that the given display and {@link ImagePlus} are in sync as of
+	 * the display's current version.
+	 */
+	public void markSynced(final ImageDisplay display, final ImagePlus imp) {
+		markSynced(display, imp, getVersion(display));
+	}
+
+	/** Forces the next harmonization of the given display to be a full one. */
+	public void invalidate(final ImageDisplay display) {
+		synchronized (entries) {
+			entry(display).version++;
+		}
+	}
+
+	/** Forces the next harmonization of every display to be a full one. */
+	public void invalidateAll() {
+		synchronized (entries) {
+			for (final Entry entry : entries.values()) {
+				entry.version++;
+			}
+		}
+	}
+
+	/** Gets the number of harmonizations skipped because nothing changed. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** Gets the number of harmonizations that had to be done in full. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** Resets the hit and miss counts to zero. */
+	public void resetCounts() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	// -- Event handlers --
+
+	/** @param event */
+	@EventHandler
+	private void onEvent(final DataUpdatedEvent event) {
+		dataChanged(event.getObject());
+	}
+
+	/** @param event */
+	@EventHandler
+	private void onEvent(final DatasetRestructuredEvent event) {
+		dataChanged(event.getObject());
+	}
+
+	/** @param event */
+	@EventHandler
+	private void onEvent(final DisplayUpdatedEvent event) {
+		final Display<?> display = event.getDisplay();
+		if (!(display instanceof ImageDisplay)) return;
+		synchronized (entries) {
+			final Entry entry = entries.get(display);
+			if (entry != null) entry.version++;
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Bumps the version of every tracked display showing the given data. */
+	private void dataChanged(final Data data) {
+		synchronized (entries) {
+			for (final Map.Entry<ImageDisplay, Entry> e : entries.entrySet()) {
+				if (e.getKey().isDisplaying(data)) e.getValue().version++;
+			}
+		}
+	}
+
+	private Entry entry(final ImageDisplay display) {
+		Entry entry = entries.get(display);
+		if (entry == null) {
+			entry = new Entry();
+			entries.put(display, entry);
+		}
+		return entry;
+	}
+
+	// -- Helper classes --
+
+	/** Sync state of a single display. */
+	private static class Entry {
+
+		private long version;
+		private long syncedVersion = -1;
+		private WeakReference<ImagePlus> syncedImp;
+		private ImpState impState;
+
+		private boolean isSyncedWith(final ImagePlus imp) {
+			return syncedVersion == version && syncedImp != null &&
+				syncedImp.get() == imp && impState != null;
+		}
+	}
+
+	/**
+	 * The shape of an {@link ImagePlus} and the fingerprints of its pixels, as
+	 * of a sync.
+	 */
+	private static class ImpState {
+
+		private final int width;
+		private final int height;
+		private final int size;
+		private final int bitDepth;
+		private final long processor;
+		private final long[] planes;
+
+		private ImpState(final ImagePlus imp) {
+			final ImageStack stack = imp.getStack();
+			width = imp.getWidth();
+			height = imp.getHeight();
+			size = stack.getSize();
+			bitDepth = imp.getBitDepth();
+			final ImageProcessor ip = imp.getProcessor();
+			processor = ip == null ? 0 : //
+				PlaneChangeDetector.fingerprint(ip.getPixels());
+			if (stack.isVirtual()) {
+				planes = new long[0];
+				return;
+			}
+			planes = new long[size];
+			ParallelPlanes.forEachPlane(size, (long) width * height, true,
+				() -> null, (state, p) -> planes[p] = PlaneChangeDetector
+					.fingerprint(stack.getPixels(p + 1)));
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof ImpState)) return false;
+			final ImpState other = (ImpState) o;
+			return width == other.width && height == other.height &&
+				size == other.size && bitDepth == other.bitDepth &&
+				processor == other.processor && Arrays.equals(planes, other.planes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(planes) ^ Long.hashCode(processor);
+		}
+	}
+}
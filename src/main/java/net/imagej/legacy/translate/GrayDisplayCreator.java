@@ -32,8 +32,8 @@
 package net.imagej.legacy.translate;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.VirtualStack;
-import ij.process.ImageProcessor;
 
 import net.imagej.Dataset;
 import net.imagej.DatasetService;
@@ -41,8 +41,6 @@ import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
 import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
-import net.imglib2.RandomAccess;
-import net.imglib2.type.numeric.RealType;
 
 import org.scijava.Context;
 import org.scijava.display.DisplayService;
@@ -217,7 +215,8 @@ public class GrayDisplayCreator extends AbstractDisplayCreator
 	/**
 	 * Assigns the data values of a gray {@link Dataset} from a paired
 	 * multichannel color {@link ImagePlus}. Assumes the Dataset and ImagePlus
-	 * have compatible dimensions. Gets values via {@link ImageProcessor}::get().
+	 * have compatible dimensions. Reads the packed int[] pixels of each plane
+	 * directly, spreading the planes over threads with {@link ParallelPlanes}.
 	 * Does not change the Dataset's metadata.
 	 */
 	private void setDatasetGrayDataFromColorImp(final Dataset ds,
@@ -233,35 +232,32 @@ public class GrayDisplayCreator extends AbstractDisplayCreator
 		final int c = imp.getNChannels();
 		final int z = imp.getNSlices();
 		final int t = imp.getNFrames();
-		int imagejPlaneNumber = 1;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		for (int ti = 0; ti < t; ti++) {
-			if (tIndex >= 0) accessor.setPosition(ti, tIndex);
-			for (int zi = 0; zi < z; zi++) {
+		final ImageStack stack = imp.getStack();
+		ParallelPlanes.forEachPlane(c * z * t, (long) x * y, true, () -> ds
+			.getImgPlus().randomAccess(), (accessor, p) -> {
+				final int ci = p % c;
+				final int zi = (p / c) % z;
+				final int ti = p / (c * z);
+				if (tIndex >= 0) accessor.setPosition(ti, tIndex);
 				if (zIndex >= 0) accessor.setPosition(zi, zIndex);
-				for (int ci = 0; ci < c; ci++) {
-					final ImageProcessor proc =
-						imp.getStack().getProcessor(imagejPlaneNumber++);
-					for (int yi = 0; yi < y; yi++) {
-						accessor.setPosition(yi, yIndex);
-						for (int xi = 0; xi < x; xi++) {
-							accessor.setPosition(xi, xIndex);
-							final int value = proc.get(xi, yi);
-							final int rValue = (value >> 16) & 0xff;
-							final int gValue = (value >> 8) & 0xff;
-							final int bValue = (value >> 0) & 0xff;
-							accessor.setPosition(ci * 3 + 0, cIndex);
-							accessor.get().setReal(rValue);
-							accessor.setPosition(ci * 3 + 1, cIndex);
-							accessor.get().setReal(gValue);
-							accessor.setPosition(ci * 3 + 2, cIndex);
-							accessor.get().setReal(bValue);
-						}
+				final int[] pixels = (int[]) ParallelPlanes.getPixels(stack, p + 1);
+				for (int yi = 0; yi < y; yi++) {
+					accessor.setPosition(yi, yIndex);
+					for (int xi = 0; xi < x; xi++) {
+						accessor.setPosition(xi, xIndex);
+						final int value = pixels[yi * x + xi];
+						final int rValue = (value >> 16) & 0xff;
+						final int gValue = (value >> 8) & 0xff;
+						final int bValue = (value >> 0) & 0xff;
+						accessor.setPosition(ci * 3 + 0, cIndex);
+						accessor.get().setReal(rValue);
+						accessor.setPosition(ci * 3 + 1, cIndex);
+						accessor.get().setReal(gValue);
+						accessor.setPosition(ci * 3 + 2, cIndex);
+						accessor.get().setReal(bValue);
 					}
 				}
-			}
-		}
+			});
 		ds.update();
 	}
 
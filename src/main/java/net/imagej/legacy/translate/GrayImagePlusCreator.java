@@ -77,6 +77,14 @@ import org.scijava.plugin.Parameter;
  */
 public class GrayImagePlusCreator extends AbstractImagePlusCreator {
 
+	/**
+	 * System property holding the size, in megabytes, above which Datasets that
+	 * legacy ImageJ cannot share plane for plane are converted lazily through a
+	 * {@link LazyGrayVirtualStack}.
+	 */
+	public static final String LAZY_THRESHOLD_PROPERTY =
+		"imagej.legacy.lazyConversionMB";
+
 	// -- instance variables --
 
 	private final GrayPixelHarmonizer pixelHarmonizer;
@@ -129,8 +137,14 @@ public class GrayImagePlusCreator extends AbstractImagePlusCreator {
 			imp = makeExactImagePlus(dataset);
 			planeHarmonizer.updateLegacyImage(dataset, imp);
 		}
+		else if (convertsLazily(dataset)) {
+			imp = makeLazyGrayImagePlus(dataset);
+		}
 		else {
-			imp = makeNearestTypeGrayImagePlus(dataset);
+			final MappedVirtualStack mapped =
+				makeMappedStack(dataset, getBitDepth(dataset));
+			imp = mapped == null ? makeNearestTypeGrayImagePlus(dataset) : //
+				makeMappedGrayImagePlus(dataset, mapped);
 			pixelHarmonizer.updateLegacyImage(dataset, imp);
 		}
 		metadataHarmonizer.updateLegacyImage(dataset, imp);
@@ -229,6 +243,51 @@ public class GrayImagePlusCreator extends AbstractImagePlusCreator {
 		return makeImagePlus(ds, getPlaneMaker(ds), false);
 	}
 
+	/**
+	 * Makes an {@link ImagePlus} whose planes live in the given
+	 * {@link MappedVirtualStack}. The data values and metadata are not
+	 * assigned.
+	 */
+	private ImagePlus makeMappedGrayImagePlus(final Dataset ds,
+		final MappedVirtualStack stack)
+	{
+		final ImagePlus imp = makeImagePlus(ds, stack);
+		if (ds.getType() instanceof ShortType) markAsSigned16Bit(imp);
+		return imp;
+	}
+
+	/**
+	 * Makes an {@link ImagePlus} backed by a {@link LazyGrayVirtualStack} that
+	 * converts the planes of a {@link Dataset} to the nearest legacy ImageJ type
+	 * when they are first accessed. The metadata is not assigned.
+	 */
+	private ImagePlus makeLazyGrayImagePlus(final Dataset ds) {
+		final ImagePlus imp =
+			makeImagePlus(ds, new LazyGrayVirtualStack(ds, getBitDepth(ds)));
+		if (ds.getType() instanceof ShortType) markAsSigned16Bit(imp);
+		return imp;
+	}
+
+	/**
+	 * Returns true if a {@link Dataset} that legacy ImageJ cannot share plane for
+	 * plane should be converted lazily rather than copied up front. That is the
+	 * case when its converted size exceeds the number of megabytes given by the
+	 * {@link #LAZY_THRESHOLD_PROPERTY} system property. Lazy conversion is off
+	 * when the property is not set.
+	 */
+	private boolean convertsLazily(final Dataset ds) {
+		final Long threshold = Long.getLong(LAZY_THRESHOLD_PROPERTY);
+		if (threshold == null || threshold < 0) return false;
+		final int[] dimIndices = new int[5];
+		final int[] dimValues = new int[5];
+		LegacyUtils.getImagePlusDims(ds, dimIndices, dimValues);
+		long bytes = getBitDepth(ds) / 8;
+		for (final int dim : dimValues) {
+			bytes *= dim;
+		}
+		return bytes > threshold << 20;
+	}
+
 	private boolean shouldBeComposite(final ImageDisplay display,
 		final Dataset ds, final ImagePlus imp)
 	{
@@ -268,16 +327,31 @@ public class GrayImagePlusCreator extends AbstractImagePlusCreator {
 	 * the Dataset's data values in legacy ImageJ.
 	 */
 	private PlaneMaker getPlaneMaker(final Dataset ds) {
+		switch (getBitDepth(ds)) {
+			case 8:
+				return new BytePlaneMaker();
+			case 16:
+				return new ShortPlaneMaker();
+			default:
+				return new FloatPlaneMaker();
+		}
+	}
+
+	/**
+	 * Finds the legacy ImageJ bit depth (8, 16 or 32) that can best represent
+	 * the data values of a given {@link Dataset}.
+	 */
+	private int getBitDepth(final Dataset ds) {
 		final boolean signed = ds.isSigned();
 		final boolean integer = ds.isInteger();
 		final int bitsPerPixel = ds.getType().getBitsPerPixel();
 		if (bitsPerPixel <= 8) {
-			if (!signed && integer) return new BytePlaneMaker();
+			if (!signed && integer) return 8;
 		}
 		else if (bitsPerPixel <= 16) {
-			if (integer) return new ShortPlaneMaker();
+			if (integer) return 16;
 		}
-		return new FloatPlaneMaker();
+		return 32;
 	}
 
 	/** Helper class to simplify the making of planes of different type data. */
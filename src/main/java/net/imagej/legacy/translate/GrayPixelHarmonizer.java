@@ -35,14 +35,12 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ImageProcessor;
 
+import java.util.BitSet;
+
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
 import net.imagej.space.SpaceUtils;
-import net.imglib2.RandomAccess;
-import net.imglib2.type.logic.BitType;
-import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.integer.ShortType;
 import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Intervals;
 
@@ -51,6 +49,10 @@ import net.imglib2.util.Intervals;
  * {@link Dataset}s. Single channel color {@link ImagePlus}es are not supported
  * here. But multichannel color {@link ImagePlus}es are handled and treated as
  * gray data.
+ * <p>
+ * Planes are independent of each other and are harmonized in parallel by
+ * {@link ParallelPlanes}.
+ * </p>
  * 
  * @author Barry DeZonia
  */
@@ -58,8 +60,7 @@ public class GrayPixelHarmonizer implements DataHarmonizer {
 
 	// -- instance variables --
 
-	private double[] savedPlane;
-	private int savedPos;
+	private PlaneSnapshot savedPlane;
 
 	// -- public api --
 
@@ -71,34 +72,40 @@ public class GrayPixelHarmonizer implements DataHarmonizer {
 	 * Users of GrayPixelHarmonizer can pass it a copy of the current plane of
 	 * pixels of an ImagePlus.
 	 * 
-	 * @param pos Slice number of the current plane
-	 * @param plane Pixels copy of the current plane
+	 * @param plane Copy of the current plane, or null to forget the last one
 	 */
-	public void savePlane(int pos, double[] plane) {
-		savedPos = pos;
+	public void savePlane(final PlaneSnapshot plane) {
 		savedPlane = plane;
 	}
 
 	/**
 	 * Assigns the data values of a {@link Dataset} from a paired
 	 * {@link ImagePlus}. Assumes the Dataset and ImagePlus have compatible
-	 * dimensions and that the data planes are not directly mapped. Gets values
-	 * via {@link ImageProcessor}::getf(). In cases where there is a narrowing of
-	 * data into modern ImageJ types the data is range clamped. Does not change
-	 * the Dataset's metadata.
+	 * dimensions and that the data planes are not directly mapped. Copies whole
+	 * planes at a time via a {@link PlaneCopier}, reading values as
+	 * {@link ImageProcessor}::getf() would report them. In cases where there is a
+	 * narrowing of data into modern ImageJ types the data is range clamped. If
+	 * the ImagePlus is a {@link LazyGrayVirtualStack} that writes through to the
+	 * Dataset only its current plane is written. Does not change the Dataset's
+	 * metadata.
 	 */
 	@Override
 	public void updateDataset(final Dataset ds, final ImagePlus imp) {
-		final RealType<?> type = ds.getType();
-		final double typeMin = type.getMinValue();
-		final double typeMax = type.getMaxValue();
-		final boolean signed16BitData = type instanceof ShortType;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
+		updateDataset(ds, imp, null);
+	}
+
+	/**
+	 * As {@link #updateDataset(Dataset, ImagePlus)}, but only copies the given
+	 * planes.
+	 * 
+	 * @param planes The 0-based indices of the legacy ImageJ planes to copy, or
+	 *          null to copy all of them
+	 */
+	public void updateDataset(final Dataset ds, final ImagePlus imp,
+		final BitSet planes)
+	{
 		final long[] dims = Intervals.dimensionsAsLongArray(ds);
 		final AxisType[] axes = SpaceUtils.getAxisTypes(ds);
-		final int xIndex = ds.dimensionIndex(Axes.X);
-		final int yIndex = ds.dimensionIndex(Axes.Y);
 		final int zIndex = ds.dimensionIndex(Axes.Z);
 		final int tIndex = ds.dimensionIndex(Axes.TIME);
 		final int xSize = imp.getWidth();
@@ -107,44 +114,39 @@ public class GrayPixelHarmonizer implements DataHarmonizer {
 		final int tSize = imp.getNFrames();
 		final int cSize = imp.getNChannels();
 		final ImageStack stack = imp.getStack();
-		int planeNum = 1;
-		final long[] pos = new long[dims.length];
+		// NOTE: to propagate a VirtualStack's first plane pixel changes we save it
+		// early in the harmonization process and refer to it later. This code is
+		// part of that process
+		final PlaneSnapshot saved = savedPlane;
+		if (stack instanceof LazyGrayVirtualStack &&
+			((LazyGrayVirtualStack) stack).writesTo(ds))
+		{
+			// NB - planes assigned to the stack are already in the Dataset. Only the
+			// current plane can hold changes that were not written through yet.
+			final int pos = saved == null ? 0 : saved.getPosition();
+			if (pos > 0) stack.setPixels(saved.getPixels(pos), pos);
+			return;
+		}
+		if (planes != null && planes.isEmpty()) return;
 		int slice = imp.getCurrentSlice();
-		for (int t = 0; t < tSize; t++) {
-			if (tIndex >= 0) pos[tIndex] = t;
-			for (int z = 0; z < zSize; z++) {
+		ParallelPlanes.forEachPlane(cSize * zSize * tSize, (long) xSize * ySize,
+			true, () -> new Worker(ds, xSize, ySize), (worker, p) -> {
+				if (planes != null && !planes.get(p)) return;
+				final long[] pos = worker.pos;
+				final int c = p % cSize;
+				final int z = (p / cSize) % zSize;
+				final int t = p / (cSize * zSize);
+				if (tIndex >= 0) pos[tIndex] = t;
 				if (zIndex >= 0) pos[zIndex] = z;
-				for (int c = 0; c < cSize; c++) {
-					LegacyUtils.fillChannelIndices(dims, axes, c, pos);
-					ImageProcessor proc = stack.getProcessor(planeNum++);
-					// TEMP HACK THAT FIXES VIRT STACK PROB BUT SLOW
-					// imp.setPosition(planeNum - 1);
-					for (int x = 0; x < xSize; x++) {
-						if (xIndex >= 0) pos[xIndex] = x;
-						for (int y = 0; y < ySize; y++) {
-							if (yIndex >= 0) pos[yIndex] = y;
-							accessor.setPosition(pos);
-							// NOTE: to propagate a VirtualStack's first plane pixel changes
-							// we save it early in the harmonization process and refer to it
-							// later. This code is part of that process
-							double value;
-							if (savedPos == planeNum - 1) {
-								int index = xSize * y + x;
-								value = savedPlane[index];
-							}
-							else {
-								value = proc.getf(x, y);
-							}
-							if (signed16BitData) value -= 32768.0;
-							if (value < typeMin) value = typeMin;
-							else if (value > typeMax) value = typeMax;
-							accessor.get().setReal(value);
-						}
-					}
-				}
-			}
-		}
-		// NOTE: the stack.getProcessor() calls that have been called so far have
+				LegacyUtils.fillChannelIndices(dims, axes, c, pos);
+				final int planeNum = p + 1;
+				final Object savedPixels = saved == null ? null : //
+					saved.getPixels(planeNum);
+				final Object pixels = savedPixels != null ? savedPixels : //
+					ParallelPlanes.getPixels(stack, planeNum);
+				worker.copier.toDataset(pos, pixels);
+			});
+		// NOTE: the stack.getPixels() calls that have been made so far have
 		// changed the current plane's pixels for virtual stacks. So reset pixels
 		// to correct plane's values
 		stack.getProcessor(slice);
@@ -156,20 +158,14 @@ public class GrayPixelHarmonizer implements DataHarmonizer {
 	 * Assigns the data values of an {@link ImagePlus} from a paired
 	 * {@link Dataset}. Assumes the Dataset and ImagePlus are not directly mapped.
 	 * It is possible that multiple modern ImageJ axes are encoded as a single set
-	 * of channels in the ImagePlus. Sets values via {@link ImageProcessor}
-	 * ::setf(). Some special case code is in place to assure that BitType images
+	 * of channels in the ImagePlus. Copies whole planes at a time via a
+	 * {@link PlaneCopier}, narrowing values as {@link ImageProcessor}::setf()
+	 * would. Some special case code is in place to assure that BitType images
 	 * go to legacy ImageJ as 0/255 value images. Does not change the ImagePlus'
 	 * metadata.
 	 */
 	@Override
 	public void updateLegacyImage(final Dataset ds, final ImagePlus imp) {
-		final RealType<?> type = ds.getType();
-		final boolean signed16BitData = type instanceof ShortType;
-		final boolean bitData = type instanceof BitType;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		final long[] dims = Intervals.dimensionsAsLongArray(ds);
-		final int xIndex = ds.dimensionIndex(Axes.X);
 		final int yIndex = ds.dimensionIndex(Axes.Y);
 		final int zIndex = ds.dimensionIndex(Axes.Z);
 		final int cIndex = ds.dimensionIndex(Axes.CHANNEL);
@@ -178,39 +174,31 @@ public class GrayPixelHarmonizer implements DataHarmonizer {
 		final int zSize = imp.getNSlices();
 		final int tSize = imp.getNFrames();
 		final int cSize = imp.getNChannels();
-		int tIndex = Math.max(yIndex, zIndex) + 1;
+		final int tIndex = Math.max(yIndex, zIndex) + 1;
 		final ImageStack stack = imp.getStack();
-		int planeNum = 1;
-		final long[] pos = new long[dims.length];
 		int slice = imp.getCurrentSlice();
 		final long[] tPos = new long[ds.numDimensions() - tIndex];
 		for (int i = tIndex; i<ds.numDimensions(); i++) {
 			tPos[i - tIndex] = ds.dimension(i);
 		}
-		for (int t = 0; t < tSize; t++) {
-			updatePosition(pos, tPos, t, tIndex);
-			for (int z = 0; z < zSize; z++) {
+		// NB - writes to the pixels of a virtual stack do not stick anyway, and
+		// its processor is shared; so never spread a virtual stack over threads
+		ParallelPlanes.forEachPlane(cSize * zSize * tSize, (long) xSize * ySize,
+			!stack.isVirtual(), () -> new Worker(ds, xSize, ySize), (worker, p) -> {
+				final long[] pos = worker.pos;
+				final int c = p % cSize;
+				final int z = (p / cSize) % zSize;
+				final int t = p / (cSize * zSize);
+				updatePosition(pos, tPos, t, tIndex);
 				if (zIndex >= 0) pos[zIndex] = z;
-				for (int c = 0; c < cSize; c++) {
-					if (cIndex >= 0) pos[cIndex] = c;
-					final ImageProcessor proc = stack.getProcessor(planeNum++);
-					// TEMP HACK THAT FIXES VIRT STACK PROB BUT SLOW
-					// imp.setPosition(planeNum - 1);
-					for (int x = 0; x < xSize; x++) {
-						if (xIndex >= 0) pos[xIndex] = x;
-						for (int y = 0; y < ySize; y++) {
-							if (yIndex >= 0) pos[yIndex] = y;
-							accessor.setPosition(pos);
-							double value = accessor.get().getRealDouble();
-							if (signed16BitData) value += 32768.0;
-							else if (bitData) if (value > 0) value = 255;
-							proc.setf(x, y, (float)value);
-						}
-					}
+				if (cIndex >= 0) pos[cIndex] = c;
+				final Object pixels = stack.getPixels(p + 1);
+				worker.copier.toLegacy(pos, pixels);
+				if (stack instanceof MappedVirtualStack) {
+					stack.setPixels(pixels, p + 1);
 				}
-			}
-		}
-		// NOTE: the stack.getProcessor() calls that have been called so far have
+			});
+		// NOTE: the stack.getPixels() calls that have been made so far have
 		// changed the current plane's pixels for virtual stacks. So reset pixels
 		// to correct plane's values
 		stack.getProcessor(slice);
@@ -233,4 +221,18 @@ public class GrayPixelHarmonizer implements DataHarmonizer {
 		}
 	}
 
+	// -- helper classes --
+
+	/** The state each harmonizing thread keeps to itself. */
+	private static class Worker {
+
+		private final PlaneCopier copier;
+		private final long[] pos;
+
+		public Worker(final Dataset ds, final int w, final int h) {
+			copier = new PlaneCopier(ds, w, h);
+			pos = new long[ds.numDimensions()];
+		}
+	}
+
 }
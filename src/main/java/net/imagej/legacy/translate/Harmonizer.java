@@ -33,7 +33,6 @@ package net.imagej.legacy.translate;
 
 import ij.ImagePlus;
 import ij.ImageStack;
-import ij.process.ImageProcessor;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -43,6 +42,7 @@ import net.imagej.ImgPlus;
 import net.imagej.axis.Axes;
 import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
+import net.imagej.legacy.LegacyImageMap;
 import net.imagej.legacy.LegacyService;
 import net.imagej.space.SpaceUtils;
 import net.imglib2.type.numeric.RealType;
@@ -74,6 +74,9 @@ public class Harmonizer extends AbstractContextual {
 	private final OverlayHarmonizer overlayHarmonizer;
 	private final PositionHarmonizer positionHarmonizer;
 	private final NameHarmonizer nameHarmonizer;
+	private final DisplaySyncTracker syncTracker;
+	private final PlaneChangeDetector planeChangeDetector;
+	private final PlaneSnapshot currentSlice;
 
 	@Parameter
 	private ImageDisplayService imageDisplayService;
@@ -100,6 +103,12 @@ public class Harmonizer extends AbstractContextual {
 		overlayHarmonizer = new OverlayHarmonizer(context);
 		positionHarmonizer = new PositionHarmonizer();
 		nameHarmonizer = new NameHarmonizer();
+		// NB - an inactive legacy service has no image map to share a tracker
+		final LegacyImageMap map = legacyService.getImageMap();
+		syncTracker =
+			map != null ? map.getSyncTracker() : new DisplaySyncTracker(context);
+		planeChangeDetector = new PlaneChangeDetector();
+		currentSlice = new PlaneSnapshot();
 	}
 
 	// -- public interface --
@@ -107,12 +116,16 @@ public class Harmonizer extends AbstractContextual {
 	/**
 	 * Changes the data within an {@link ImagePlus} to match data in a
 	 * {@link ImageDisplay}. Assumes Dataset has planar primitive access in a
-	 * legacy ImageJ compatible format.
+	 * legacy ImageJ compatible format. Pixels, color tables and overlays are
+	 * only harmonized if the {@link DisplaySyncTracker} reports that the display
+	 * changed since it was last synced with the ImagePlus.
 	 */
 	public void
 		updateLegacyImage(final ImageDisplay display, final ImagePlus imp)
 	{
 		final Dataset ds = imageDisplayService.getActiveDataset(display);
+		final long version = syncTracker.getVersion(display);
+		final boolean changed = syncTracker.needsSync(display, imp);
 		/*
 		boolean binaryTypeChange = false;
 		if (imp.getBitDepth() == 8) {
@@ -124,7 +137,10 @@ public class Harmonizer extends AbstractContextual {
 			}
 		}
 		*/
-		if (!imagePlusIsNearestType(ds, imp) /* || binaryTypeChange */) {
+		if (!changed) {
+			// display is unchanged since last sync : pixels are up to date
+		}
+		else if (!imagePlusIsNearestType(ds, imp) /* || binaryTypeChange */) {
 			rebuildImagePlusData(display, imp);
 		}
 		else {
@@ -134,7 +150,7 @@ public class Harmonizer extends AbstractContextual {
 				rebuildImagePlusData(display, imp);
 			}
 			else if (imp.getType() == ImagePlus.COLOR_RGB) {
-				if (!imp.getStack().isVirtual()) {
+				if (holdsCopy(imp.getStack())) {
 					colorPixelHarmonizer.updateLegacyImage(ds, imp);
 				}
 			}
@@ -142,18 +158,21 @@ public class Harmonizer extends AbstractContextual {
 				planeHarmonizer.updateLegacyImage(ds, imp);
 			}
 			else {
-				if (!imp.getStack().isVirtual()) {
+				if (holdsCopy(imp.getStack())) {
 					grayPixelHarmonizer.updateLegacyImage(ds, imp);
 				}
 			}
 		}
 		metadataHarmonizer.updateLegacyImage(ds, imp);
-		colorTableHarmonizer.updateLegacyImage(display, imp);
-		// NB - correct thresholding behavior requires overlay harmonization after
-		// color table harmonization
-		overlayHarmonizer.updateLegacyImage(display, imp);
+		if (changed) {
+			colorTableHarmonizer.updateLegacyImage(display, imp);
+			// NB - correct thresholding behavior requires overlay harmonization
+			// after color table harmonization
+			overlayHarmonizer.updateLegacyImage(display, imp);
+		}
 		positionHarmonizer.updateLegacyImage(display, imp);
 		nameHarmonizer.updateLegacyImage(display, imp);
+		if (changed) syncTracker.markSynced(display, imp, version);
 	}
 
 	/**
@@ -202,13 +221,18 @@ public class Harmonizer extends AbstractContextual {
 		}
 		else { // ImagePlus type and shape unchanged
 			if (imp.getType() == ImagePlus.COLOR_RGB) {
-				colorPixelHarmonizer.updateDataset(ds, imp);
+				colorPixelHarmonizer.updateDataset(ds, imp, planeChangeDetector
+					.changedPlanes(imp));
 			}
 			else if (LegacyUtils.datasetIsIJ1Compatible(ds)) {
 				planeHarmonizer.updateDataset(ds, imp);
 			}
-			else grayPixelHarmonizer.updateDataset(ds, imp);
+			else {
+				grayPixelHarmonizer.updateDataset(ds, imp, planeChangeDetector
+					.changedPlanes(imp));
+			}
 		}
+		planeChangeDetector.forget(imp);
 		metadataHarmonizer.updateDataset(ds, imp);
 		compositeHarmonizer.updateDataset(ds, imp);
 		colorTableHarmonizer.updateDisplay(display, imp);
@@ -218,6 +242,10 @@ public class Harmonizer extends AbstractContextual {
 		positionHarmonizer.updateDisplay(display, imp);
 		nameHarmonizer.updateDisplay(display, imp);
 
+		// NB - the events published while updating the display were caused by
+		// the ImagePlus itself, so the pair is in sync as of now
+		syncTracker.markSynced(display, imp);
+
 		// TODO - this should not be necessary but Blobs will not display inverted
 		// without this. When we change the update mechanism so that drawing only
 		// happens in the display code after it has collected all info about updates
@@ -237,16 +265,37 @@ public class Harmonizer extends AbstractContextual {
 		bitDepthMap.put(imp, imp.getBitDepth());
 	}
 
+	/**
+	 * Remembers which pixel arrays an {@link ImagePlus} holds and fingerprints
+	 * their contents. A later {@link #updateDisplay(ImageDisplay, ImagePlus)}
+	 * then only copies the planes a plugin actually changed. Call this on the
+	 * image a plugin is about to operate on; images without a snapshot are
+	 * copied back in full.
+	 */
+	public void snapshotPlanes(final ImagePlus imp) {
+		planeChangeDetector.snapshot(imp);
+	}
+
 	/**
 	 * Forgets the types of all {@link ImagePlus}es. Called before a plugin is run
-	 * to reset the tracking of types.
+	 * to reset the tracking of types. Also forgets all plane snapshots.
 	 */
 	public void resetTypeTracking() {
 		bitDepthMap.clear();
+		planeChangeDetector.clear();
 	}
 
 	// -- private interface --
 
+	/**
+	 * Returns true if a stack holds its own copy of the pixels, which must be
+	 * updated when the Dataset changes. Other virtual stacks read the Dataset
+	 * itself.
+	 */
+	private boolean holdsCopy(final ImageStack stack) {
+		return !stack.isVirtual() || stack instanceof MappedVirtualStack;
+	}
+
 	/**
 	 * Returns true if an {@link ImagePlus}' type is the best fit for a given
 	 * {@link Dataset}. Best fit means the legacy ImageJ type that is the best at
@@ -363,7 +412,12 @@ public class Harmonizer extends AbstractContextual {
 		final ImagePlus imp)
 	{
 		final ImagePlus newImp = legacyService.getImageMap().registerDisplay(display);
+		final ImageStack oldStack = imp.getStack();
 		imp.setStack(newImp.getStack());
+		// NB - the old planes may live in a temporary file; nothing refers to it now
+		if (oldStack instanceof MappedVirtualStack) {
+			((MappedVirtualStack) oldStack).dispose();
+		}
 		final int c = newImp.getNChannels();
 		final int z = newImp.getNSlices();
 		final int t = newImp.getNFrames();
@@ -426,17 +480,14 @@ public class Harmonizer extends AbstractContextual {
 	// of that process
 
 	private void saveCurrentSlice(ImagePlus imp) {
-		ImageProcessor proc = imp.getProcessor();
-		int pos = imp.getCurrentSlice();
-		double[] plane = new double[imp.getWidth() * imp.getHeight()];
-		for (int i = 0; i < plane.length; i++) {
-			plane[i] = proc.getf(i);
-		}
+		currentSlice.capture(imp);
 		if (imp.getType() == ImagePlus.COLOR_RGB) {
-			colorPixelHarmonizer.savePlane(pos, plane);
+			colorPixelHarmonizer.savePlane(currentSlice);
+			grayPixelHarmonizer.savePlane(null);
 		}
 		else {
-			grayPixelHarmonizer.savePlane(pos, plane);
+			grayPixelHarmonizer.savePlane(currentSlice);
+			colorPixelHarmonizer.savePlane(null);
 		}
 	}
 
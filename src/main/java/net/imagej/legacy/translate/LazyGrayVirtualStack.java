@@ -0,0 +1,292 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.space.SpaceUtils;
+import net.imglib2.util.Intervals;
+
+/**
+ * A {@link VirtualStack} that converts the planes of a gray {@link Dataset}
+ * into legacy ImageJ byte, short or float planes on demand.
+ * <p>
+ * This is used for Datasets whose type legacy ImageJ cannot share plane for
+ * plane (such as 32-bit integer or 64-bit data), where an eager conversion
+ * would hold a second copy of the whole image. A plane is converted the first
+ * time it is asked for and kept in a {@link PlaneCache} bounded by a memory
+ * budget. Pixels assigned via {@link #setPixels(Object, int)} are
+ * converted back and written into the Dataset, range clamped to its type.
+ * </p>
+ */
+public class LazyGrayVirtualStack extends VirtualStack {
+
+	/**
+	 * System property holding the default cache budget of new stacks, in
+	 * megabytes.
+	 */
+	public static final String CACHE_SIZE_PROPERTY = "imagej.legacy.lazyCacheMB";
+
+	private static final long DEFAULT_CACHE_MB = 256;
+
+	// -- instance variables --
+
+	private final Dataset ds;
+	private final int bitDepth;
+	private final int w;
+	private final int h;
+	private final int cSize;
+	private final int zSize;
+	private final int size;
+	private final int zIndex;
+	private final int tIndex;
+	private final long[] dims;
+	private final AxisType[] axes;
+	private final long[] pos;
+	private final PlaneCopier copier;
+	private final Object plane;
+	private final ImageProcessor processor;
+	private final PlaneCache<Object> cache;
+
+	// -- constructor --
+
+	/**
+	 * Constructs a LazyGrayVirtualStack from a gray {@link Dataset}.
+	 * 
+	 * @param ds The Dataset to wrap
+	 * @param bitDepth The legacy ImageJ bit depth to convert to: 8, 16 or 32
+	 */
+	public LazyGrayVirtualStack(final Dataset ds, final int bitDepth) {
+		if (bitDepth != 8 && bitDepth != 16 && bitDepth != 32) {
+			throw new IllegalArgumentException("Unsupported bit depth: " + bitDepth);
+		}
+		final int[] dimIndices = new int[5];
+		final int[] dimValues = new int[5];
+		LegacyUtils.getImagePlusDims(ds, dimIndices, dimValues);
+		this.ds = ds;
+		this.bitDepth = bitDepth;
+		w = dimValues[0];
+		h = dimValues[1];
+		cSize = dimValues[2];
+		zSize = dimValues[3];
+		size = cSize * zSize * dimValues[4];
+		zIndex = ds.dimensionIndex(Axes.Z);
+		tIndex = ds.dimensionIndex(Axes.TIME);
+		dims = Intervals.dimensionsAsLongArray(ds);
+		axes = SpaceUtils.getAxisTypes(ds);
+		pos = new long[ds.numDimensions()];
+		copier = new PlaneCopier(ds, w, h);
+		plane = newPlane();
+		if (bitDepth == 8) processor = new ByteProcessor(w, h, (byte[]) plane);
+		else if (bitDepth == 16) {
+			processor = new ShortProcessor(w, h, (short[]) plane, null);
+		}
+		else processor = new FloatProcessor(w, h, (float[]) plane);
+		cache = new PlaneCache<>(ds, size, (long) w * h * (bitDepth / 8),
+			CACHE_SIZE_PROPERTY, DEFAULT_CACHE_MB, this::newPlane, this::convert);
+	}
+
+	// -- LazyGrayVirtualStack methods --
+
+	public Dataset getDataset() {
+		return ds;
+	}
+
+	/**
+	 * Returns true if pixels assigned to this stack end up in the given
+	 * {@link Dataset}.
+	 */
+	public boolean writesTo(final Dataset dataset) {
+		return dataset == ds;
+	}
+
+	/**
+	 * Sets the memory budget of the converted plane cache. A budget smaller than
+	 * a single plane disables caching.
+	 * 
+	 * @param bytes The maximum number of bytes of converted planes to keep
+	 */
+	public void setCacheSize(final long bytes) {
+		cache.setSize(bytes);
+	}
+
+	/** Forgets all converted planes. */
+	public void invalidate() {
+		cache.clear();
+	}
+
+	// -- VirtualStack/ImageStack methods --
+
+	@Override
+	public synchronized ImageProcessor getProcessor(final int n) {
+		checkSlice(n);
+		final Object cached = cache.get(n);
+		if (cached == null) convert(n, plane);
+		else System.arraycopy(cached, 0, plane, 0, w * h);
+		return processor;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	/**
+	 * Returns the pixel array for the specified slice, where
+	 * {@code 1<=n<=nslices}.
+	 */
+	@Override
+	public Object getPixels(final int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	/**
+	 * Assigns a pixel array to the specified slice, where {@code 1<=n<=nslices}.
+	 * The pixels are written into the Dataset unless they match the plane's
+	 * current contents.
+	 */
+	@Override
+	public synchronized void setPixels(final Object pixels, final int n) {
+		checkSlice(n);
+		if (pixels == null || pixels.getClass() != plane.getClass() ||
+			Array.getLength(pixels) != w * h)
+		{
+			throw new IllegalArgumentException("Pixels do not match the stack");
+		}
+		final Object cached = cache.get(n);
+		if (cached != null) {
+			if (samePixels(cached, pixels)) return; // plane is not dirty
+			System.arraycopy(pixels, 0, cached, 0, w * h);
+		}
+		positionToPlane(n);
+		copier.toDataset(pos, pixels);
+		cache.written();
+		cache.updateDataset();
+	}
+
+	/** Does nothing. Slices of this stack are not backed by files. */
+	@Override
+	public void addSlice(final String name) {}
+
+	/** Does nothing. The stack always mirrors the shape of its Dataset. */
+	@Override
+	public void deleteSlice(final int n) {}
+
+	/** Does nothing. The stack always mirrors the shape of its Dataset. */
+	@Override
+	public void deleteLastSlice() {}
+
+	@Override
+	public String getSliceLabel(final int n) {
+		return "" + n;
+	}
+
+	@Override
+	public String getShortSliceLabel(final int n) {
+		return getSliceLabel(n);
+	}
+
+	@Override
+	public void setSliceLabel(final String label, final int n) {}
+
+	@Override
+	public void trim() {}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public void setBitDepth(final int bitDepth) {}
+
+	@Override
+	public String getDirectory() {
+		return null;
+	}
+
+	@Override
+	public String getFileName(final int n) {
+		return null;
+	}
+
+	// -- private helpers --
+
+	private void convert(final int n, final Object pixels) {
+		positionToPlane(n);
+		copier.toLegacy(pos, pixels);
+	}
+
+	private Object newPlane() {
+		if (bitDepth == 8) return new byte[w * h];
+		if (bitDepth == 16) return new short[w * h];
+		return new float[w * h];
+	}
+
+	private void checkSlice(final int n) {
+		if (n < 1 || n > size) {
+			throw new IllegalArgumentException("n out of range: " + n);
+		}
+	}
+
+	/**
+	 * Sets the Dataset position of slice n. Planes are ordered the way legacy
+	 * ImageJ orders them: channels vary fastest, then z, then time.
+	 */
+	private void positionToPlane(final int n) {
+		final int p = n - 1;
+		final int c = p % cSize;
+		final int z = (p / cSize) % zSize;
+		final int t = p / (cSize * zSize);
+		if (tIndex >= 0) pos[tIndex] = t;
+		if (zIndex >= 0) pos[zIndex] = z;
+		LegacyUtils.fillChannelIndices(dims, axes, c, pos);
+	}
+
+	private static boolean samePixels(final Object a, final Object b) {
+		if (a instanceof byte[]) return Arrays.equals((byte[]) a, (byte[]) b);
+		if (a instanceof short[]) return Arrays.equals((short[]) a, (short[]) b);
+		return Arrays.equals((float[]) a, (float[]) b);
+	}
+
+}
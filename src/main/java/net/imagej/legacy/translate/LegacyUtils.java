@@ -32,6 +32,7 @@
 package net.imagej.legacy.translate;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
 import ij.macro.Interpreter;
 
@@ -70,6 +71,18 @@ public class LegacyUtils {
 		Interpreter.removeBatchModeImage(imp);
 	}
 
+	/**
+	 * Releases the temporary file behind the given {@link ImagePlus}, if its
+	 * stack is a {@link MappedVirtualStack}. The stack is unusable afterwards.
+	 */
+	public static void disposeStack(final ImagePlus imp) {
+		if (imp.getStackSize() == 0) return;
+		final ImageStack stack = imp.getStack();
+		if (stack instanceof MappedVirtualStack) {
+			((MappedVirtualStack) stack).dispose();
+		}
+	}
+
 	/**
 	 * Returns true if any of the given Axes cannot be represented in an legacy
 	 * ImageJ ImagePlus.
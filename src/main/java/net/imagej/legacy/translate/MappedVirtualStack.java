@@ -0,0 +1,345 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A {@link VirtualStack} whose planes live in a memory-mapped temporary file
+ * rather than on the Java heap.
+ * <p>
+ * The file is mapped with {@link FileChannel#map} in chunks of whole planes
+ * (each chunk below 2 GB), and chunks are only mapped once one of their planes
+ * is accessed; the operating system pages the data in and out as needed. Only
+ * the plane handed out through {@link #getProcessor(int)} is held on the heap.
+ * Changes to it are kept once they are handed back through
+ * {@link #setPixels(Object, int)}.
+ * </p>
+ * <p>
+ * The temporary file is unmapped and deleted by {@link #dispose()}, or
+ * otherwise when the JVM exits. The legacy image map disposes the stack once its
+ * {@link ij.ImagePlus} is closed or unmapped, or its planes are rebuilt.
+ * </p>
+ */
+public class MappedVirtualStack extends VirtualStack {
+
+	// -- instance variables --
+
+	private final int w;
+	private final int h;
+	private final int size;
+	private final int bitDepth;
+	private final int planeBytes;
+	private final int planesPerChunk;
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final MappedByteBuffer[] chunks;
+	private final Object plane;
+	private final ImageProcessor processor;
+	private boolean disposed;
+
+	// -- constructor --
+
+	/**
+	 * Constructs a MappedVirtualStack of zeroed planes.
+	 * 
+	 * @param w The width of the planes
+	 * @param h The height of the planes
+	 * @param size The number of planes
+	 * @param bitDepth The legacy ImageJ bit depth of the planes: 8, 16, 24 (RGB)
+	 *          or 32
+	 * @throws IOException if the temporary file cannot be created or mapped
+	 */
+	public MappedVirtualStack(final int w, final int h, final int size,
+		final int bitDepth) throws IOException
+	{
+		final int bytesPerPixel;
+		switch (bitDepth) {
+			case 8:
+				bytesPerPixel = 1;
+				plane = new byte[w * h];
+				processor = new ByteProcessor(w, h, (byte[]) plane);
+				break;
+			case 16:
+				bytesPerPixel = 2;
+				plane = new short[w * h];
+				processor = new ShortProcessor(w, h, (short[]) plane, null);
+				break;
+			case 24:
+				bytesPerPixel = 4;
+				plane = new int[w * h];
+				processor = new ColorProcessor(w, h, (int[]) plane);
+				break;
+			case 32:
+				bytesPerPixel = 4;
+				plane = new float[w * h];
+				processor = new FloatProcessor(w, h, (float[]) plane);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported bit depth: " +
+					bitDepth);
+		}
+		if ((long) w * h * bytesPerPixel > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("XY dims too large");
+		}
+		this.w = w;
+		this.h = h;
+		this.size = size;
+		this.bitDepth = bitDepth;
+		planeBytes = w * h * bytesPerPixel;
+		planesPerChunk = Math.max(1, Integer.MAX_VALUE / planeBytes);
+		chunks = new MappedByteBuffer[(size + planesPerChunk - 1) / planesPerChunk];
+		file = File.createTempFile("imagej-legacy-", ".stack");
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength((long) planeBytes * size);
+		channel = raf.getChannel();
+	}
+
+	// -- MappedVirtualStack methods --
+
+	/**
+	 * Unmaps, closes and deletes the backing file. The stack must not be used
+	 * afterwards.
+	 */
+	public synchronized void dispose() {
+		if (disposed) return;
+		disposed = true;
+		for (int i = 0; i < chunks.length; i++) {
+			if (chunks[i] != null) unmap(chunks[i]);
+			chunks[i] = null;
+		}
+		try {
+			channel.close();
+			raf.close();
+		}
+		catch (final IOException exc) {
+			// NB: nothing more we can do
+		}
+		file.delete();
+	}
+
+	/** Gets whether {@link #dispose()} was called. */
+	public synchronized boolean isDisposed() {
+		return disposed;
+	}
+
+	// -- VirtualStack/ImageStack methods --
+
+	@Override
+	public synchronized ImageProcessor getProcessor(final int n) {
+		final ByteBuffer buffer = planeBuffer(n);
+		switch (bitDepth) {
+			case 8:
+				buffer.get((byte[]) plane);
+				break;
+			case 16:
+				buffer.asShortBuffer().get((short[]) plane);
+				break;
+			case 24:
+				buffer.asIntBuffer().get((int[]) plane);
+				break;
+			default:
+				buffer.asFloatBuffer().get((float[]) plane);
+		}
+		return processor;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	/**
+	 * Returns the pixel array for the specified slice, where
+	 * {@code 1<=n<=nslices}.
+	 */
+	@Override
+	public Object getPixels(final int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	/**
+	 * Assigns a pixel array to the specified slice, where {@code 1<=n<=nslices}.
+	 * The pixels are copied into the backing file.
+	 */
+	@Override
+	public synchronized void setPixels(final Object pixels, final int n) {
+		if (pixels == null || pixels.getClass() != plane.getClass() ||
+			Array.getLength(pixels) != w * h)
+		{
+			throw new IllegalArgumentException("Pixels do not match the stack");
+		}
+		final ByteBuffer buffer = planeBuffer(n);
+		switch (bitDepth) {
+			case 8:
+				buffer.put((byte[]) pixels);
+				break;
+			case 16:
+				buffer.asShortBuffer().put((short[]) pixels);
+				break;
+			case 24:
+				buffer.asIntBuffer().put((int[]) pixels);
+				break;
+			default:
+				buffer.asFloatBuffer().put((float[]) pixels);
+		}
+	}
+
+	/** Does nothing. Slices of this stack are not backed by individual files. */
+	@Override
+	public void addSlice(final String name) {}
+
+	/** Does nothing. The stack has a fixed number of slices. */
+	@Override
+	public void deleteSlice(final int n) {}
+
+	/** Does nothing. The stack has a fixed number of slices. */
+	@Override
+	public void deleteLastSlice() {}
+
+	@Override
+	public String getSliceLabel(final int n) {
+		return "" + n;
+	}
+
+	@Override
+	public String getShortSliceLabel(final int n) {
+		return getSliceLabel(n);
+	}
+
+	@Override
+	public void setSliceLabel(final String label, final int n) {}
+
+	@Override
+	public void trim() {}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public void setBitDepth(final int bitDepth) {}
+
+	@Override
+	public String getDirectory() {
+		return null;
+	}
+
+	@Override
+	public String getFileName(final int n) {
+		return null;
+	}
+
+	// -- private helpers --
+
+	/**
+	 * Returns a native order buffer over the bytes of slice n, mapping its chunk
+	 * of the file if necessary.
+	 */
+	private ByteBuffer planeBuffer(final int n) {
+		if (n < 1 || n > size) {
+			throw new IllegalArgumentException("n out of range: " + n);
+		}
+		if (disposed) throw new IllegalStateException("Stack was disposed");
+		final int chunk = (n - 1) / planesPerChunk;
+		if (chunks[chunk] == null) {
+			final long start = (long) chunk * planesPerChunk * planeBytes;
+			final int planes =
+				Math.min(planesPerChunk, size - chunk * planesPerChunk);
+			try {
+				chunks[chunk] =
+					channel.map(MapMode.READ_WRITE, start, (long) planes * planeBytes);
+			}
+			catch (final IOException exc) {
+				throw new IllegalStateException("Cannot map " + file, exc);
+			}
+		}
+		final ByteBuffer buffer = chunks[chunk].duplicate();
+		final int offset = ((n - 1) % planesPerChunk) * planeBytes;
+		buffer.position(offset);
+		buffer.limit(offset + planeBytes);
+		return buffer.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Releases the mapping of the given buffer right away, rather than when it
+	 * is garbage collected, where the platform allows. Otherwise the memory and
+	 * the file stay mapped until then. The buffer must not be used afterwards.
+	 */
+	private static void unmap(final MappedByteBuffer buffer) {
+		try {
+			// Java 9 and later
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner =
+				unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		}
+		catch (final Exception exc) {
+			// NB: fall back to the Java 8 way
+		}
+		try {
+			final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			final Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(
+				cleaner);
+		}
+		catch (final Exception exc) {
+			// NB: left to the garbage collector
+		}
+	}
+
+}
@@ -31,30 +31,56 @@
 
 package net.imagej.legacy.translate;
 
+import ij.ImageStack;
 import ij.VirtualStack;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
-import net.imglib2.RandomAccess;
-import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.IntervalIndexer;
 
 /**
  * This class allows a merged color {@link Dataset} to be treated as a
  * {@link VirtualStack} of int[] data.
+ * <p>
+ * Packed planes are kept in a {@link PlaneCache} whose size is bounded by a
+ * memory budget (see {@link #setCacheSize(long)}), so that moving back and
+ * forth through a stack does not repack planes it has just shown.
+ * </p>
+ * <p>
+ * The stack writes through to the Dataset: pixels assigned via
+ * {@link #setPixels(Object, int)} are unpacked into the Dataset's three
+ * channels, skipping planes whose pixels did not change. The Dataset is only
+ * told about the new pixels by {@link #updateDataset()}, which the harmonizer
+ * calls once when it is done, rather than once per plane. Slices added or
+ * deleted through the {@link ImageStack} API are kept in memory, since the
+ * Dataset cannot change shape in place; once that happened the stack no longer
+ * {@link #writesTo(Dataset) writes to} the Dataset and the harmonizers rebuild
+ * the Dataset from the stack instead.
+ * </p>
  * 
  * @author Barry DeZonia
  */
 public class MergedRgbVirtualStack extends VirtualStack {
 
+	/**
+	 * System property holding the default cache budget of new stacks, in
+	 * megabytes.
+	 */
+	public static final String CACHE_SIZE_PROPERTY = "imagej.legacy.rgbCacheMB";
+
+	private static final long DEFAULT_CACHE_MB = 64;
+
 	// -- instance variables --
 
 	private final Dataset ds;
 	private final int[] plane;
-	private final RandomAccess<? extends RealType<?>> accessor;
 	private final ImageProcessor processor;
 	private final int w;
 	private final int h;
@@ -65,6 +91,14 @@ public class MergedRgbVirtualStack extends VirtualStack {
 	private final long[] planeDims;
 	private final long[] planePos;
 	private final long[] pos;
+	private final PlaneCache<int[]> cache;
+
+	/**
+	 * The slices of the stack once it has been restructured: an Integer is the
+	 * 1-based number of a Dataset plane, an int[] holds the pixels of an added
+	 * slice. Null while the stack matches the Dataset plane for plane.
+	 */
+	private List<Object> slices;
 
 	// -- MergedRgbVirtualStack methods --
 
@@ -108,36 +142,61 @@ public class MergedRgbVirtualStack extends VirtualStack {
 		this.w = (int) ds.dimension(xAxis);
 		this.h = (int) ds.dimension(yAxis);
 		this.plane = new int[w * h];
-		this.accessor = ds.getImgPlus().randomAccess();
 		this.processor = new ColorProcessor(w, h, plane);
 		this.size = (int) sz;
 		this.pos = new long[ds.numDimensions()];
+		this.cache = new PlaneCache<>(ds, size, 4L * w * h, CACHE_SIZE_PROPERTY,
+			DEFAULT_CACHE_MB, () -> new int[w * h], this::pack);
 	}
 
 	public Dataset getDataset() {
 		return ds;
 	}
 
+	/**
+	 * Sets the memory budget of the packed plane cache. A budget smaller than a
+	 * single plane disables caching.
+	 * 
+	 * @param bytes The maximum number of bytes of packed planes to keep
+	 */
+	public void setCacheSize(final long bytes) {
+		cache.setSize(bytes);
+	}
+
+	/** Forgets all cached planes. */
+	public void invalidate() {
+		cache.clear();
+	}
+
+	/**
+	 * Updates the Dataset once if pixels were assigned to it through
+	 * {@link #setPixels(Object, int)} since the last call.
+	 */
+	public synchronized void updateDataset() {
+		cache.updateDataset();
+	}
+
+	/**
+	 * Returns true if this stack still maps plane for plane onto the given
+	 * {@link Dataset}, so that pixels assigned to it end up in the Dataset.
+	 */
+	public synchronized boolean writesTo(final Dataset dataset) {
+		return dataset == ds && slices == null;
+	}
+
 	// -- VirtualStack/ImageStack methods --
 
 	@Override
-	public ImageProcessor getProcessor(int n) {
-		positionToPlane(n);
-		int index = 0;
-		for (int y = 0; y < h; y++) {
-			accessor.setPosition(y, yAxis);
-			for (int x = 0; x < w; x++) {
-				accessor.setPosition(x, xAxis);
-				accessor.setPosition(0, cAxis);
-				int r = (int) accessor.get().getRealDouble();
-				accessor.fwd(cAxis);
-				int g = (int) accessor.get().getRealDouble();
-				accessor.fwd(cAxis);
-				int b = (int) accessor.get().getRealDouble();
-				int argb = (255 << 24) | (r << 16) | (g << 8) | b;
-				plane[index++] = argb;
-			}
+	public synchronized ImageProcessor getProcessor(int n) {
+		final Object slice = slice(n);
+		if (slice instanceof int[]) {
+			System.arraycopy(slice, 0, plane, 0, plane.length);
+			return processor;
 		}
+		final int p = (Integer) slice;
+		final int[] cached = cache.get(p);
+		if (cached == null) pack(p, plane);
+		else System.arraycopy(cached, 0, plane, 0, plane.length);
 		return processor;
 	}
 
@@ -154,33 +213,58 @@ public class MergedRgbVirtualStack extends VirtualStack {
 
 	/** Adds the image in 'ip' to the end of the stack. */
 	@Override
-	public void addSlice(final String sliceLabel, final ImageProcessor ip) {}
+	public void addSlice(final String sliceLabel, final ImageProcessor ip) {
+		addSlice(sliceLabel, ip, getSize());
+	}
 
 	/**
 	 * Adds the image in 'ip' to the stack following slice 'n'. Adds the slice to
 	 * the beginning of the stack if 'n' is zero.
 	 */
 	@Override
-	public void addSlice(final String sliceLabel, final ImageProcessor ip,
-		final int n)
-	{}
+	public synchronized void addSlice(final String sliceLabel,
+		final ImageProcessor ip, final int n)
+	{
+		if (n < 0 || n > getSize()) {
+			throw new IllegalArgumentException("n out of range: " + n);
+		}
+		if (ip.getWidth() != w || ip.getHeight() != h) {
+			throw new IllegalArgumentException("Dimensions do not match");
+		}
+		final int[] pixels = (int[]) ip.convertToRGB().getPixels();
+		restructure().add(n, pixels.clone());
+	}
 
 	@Override
-	public void addSlice(ImageProcessor ip) {}
+	public void addSlice(ImageProcessor ip) {
+		addSlice(null, ip);
+	}
 
+	/**
+	 * Does nothing. Slices of this stack are not backed by files.
+	 */
 	@Override
 	public void addSlice(String name) {}
 
 	@Override
-	public void addSlice(String sliceLabel, Object pixels) {}
+	public synchronized void addSlice(String sliceLabel, Object pixels) {
+		restructure().add(checkPixels(pixels).clone());
+	}
 
 	/** Deletes the specified slice, where {@code 1<=n<=nslices}. */
 	@Override
-	public void deleteSlice(final int n) {}
+	public synchronized void deleteSlice(final int n) {
+		if (n < 1 || n > getSize()) {
+			throw new IllegalArgumentException("n out of range: " + n);
+		}
+		restructure().remove(n - 1);
+	}
 
 	/** Deletes the last slice in the stack. */
 	@Override
-	public void deleteLastSlice() {}
+	public synchronized void deleteLastSlice() {
+		if (getSize() > 0) deleteSlice(getSize());
+	}
 
 	/**
 	 * Updates this stack so its attributes, such as min, max, calibration table
@@ -200,18 +284,45 @@ public class MergedRgbVirtualStack extends VirtualStack {
 
 	/**
 	 * Assigns a pixel array to the specified slice, where {@code 1<=n<=nslices}.
+	 * The pixels are unpacked into the red, green and blue channels of the
+	 * Dataset.
 	 */
 	@Override
-	public void setPixels(final Object pixels, final int n) {}
+	public synchronized void setPixels(final Object pixels, final int n) {
+		final int[] packed = checkPixels(pixels);
+		final Object slice = slice(n);
+		if (slice instanceof int[]) {
+			if (slice != packed) {
+				System.arraycopy(packed, 0, slice, 0, packed.length);
+			}
+			return;
+		}
+		final int p = (Integer) slice;
+		final int[] cached = cache.get(p);
+		if (cached != null) {
+			if (Arrays.equals(cached, packed)) return; // plane is not dirty
+			System.arraycopy(packed, 0, cached, 0, cached.length);
+		}
+		unpack(p, packed);
+		cache.written();
+	}
 
 	/**
-	 * Returns the stack as an array of 1D pixel arrays. Note that the size of the
-	 * returned array may be greater than the number of slices currently in the
-	 * stack, with unused elements set to null.
+	 * Returns the stack as an array of 1D pixel arrays, if all of its slices
+	 * were added through the {@link ImageStack} API and are held in memory.
+	 * Changes to those arrays are changes to the stack. Returns null as long
+	 * as any slice is still a plane of the Dataset, which has no pixel array
+	 * that could be changed in place.
 	 */
 	@Override
-	public Object[] getImageArray() {
-		return null;
+	public synchronized Object[] getImageArray() {
+		final Object[] array = new Object[getSize()];
+		for (int n = 1; n <= array.length; n++) {
+			final Object slice = slice(n);
+			if (!(slice instanceof int[])) return null;
+			array[n - 1] = slice;
+		}
+		return array;
 	}
 
 	/**
@@ -276,8 +387,8 @@ public class MergedRgbVirtualStack extends VirtualStack {
 
 	/** Returns the number of slices in this stack */
 	@Override
-	public int getSize() {
-		return size;
+	public synchronized int getSize() {
+		return slices == null ? size : slices.size();
 	}
 
 	@Override
@@ -295,6 +406,59 @@ public class MergedRgbVirtualStack extends VirtualStack {
 
 	// -- private helpers --
 
+	/**
+	 * Returns what backs slice n: the Integer number of a Dataset plane or the
+	 * int[] pixels of an added slice.
+	 */
+	private Object slice(final int n) {
+		if (n < 1 || n > getSize()) {
+			throw new IllegalArgumentException("n out of range: " + n);
+		}
+		return slices == null ? Integer.valueOf(n) : slices.get(n - 1);
+	}
+
+	/** Returns the slice list, creating it on the first structural change. */
+	private List<Object> restructure() {
+		if (slices == null) {
+			slices = new ArrayList<>(size);
+			for (int p = 1; p <= size; p++)
+				slices.add(p);
+		}
+		return slices;
+	}
+
+	private int[] checkPixels(final Object pixels) {
+		if (!(pixels instanceof int[])) {
+			throw new IllegalArgumentException("Pixels are not int[] data");
+		}
+		final int[] packed = (int[]) pixels;
+		if (packed.length != w * h) {
+			throw new IllegalArgumentException("Pixels have the wrong size");
+		}
+		return packed;
+	}
+
+	/** Packs the three channels of plane n into ARGB values. */
+	private void pack(final int n, final int[] packed) {
+		positionToPlane(n);
+		copier().toLegacy(pos, packed);
+	}
+
+	/** Unpacks ARGB values into the three channels of plane n. */
+	private void unpack(final int n, final int[] packed) {
+		positionToPlane(n);
+		copier().toDataset(pos, packed);
+	}
+
+	/**
+	 * Returns an {@link RgbPlaneCopier} for the Dataset as it is currently
+	 * stored. A fresh one is made each time since restructuring can replace the
+	 * Dataset's storage.
+	 */
+	private RgbPlaneCopier copier() {
+		return new RgbPlaneCopier(ds, w, h);
+	}
+
 	private void positionToPlane(int pNum) {
 		if (planeDims.length == 0) return; // already there
 		IntervalIndexer.indexToPosition(pNum - 1, planeDims, planePos);
@@ -303,7 +467,6 @@ public class MergedRgbVirtualStack extends VirtualStack {
 			if (i == xAxis || i == yAxis || i == cAxis) pos[i] = 0;
 			else pos[i] = planePos[j++];
 		}
-		accessor.setPosition(pos);
 	}
 
 }
@@ -0,0 +1,273 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.ImageStack;
+import ij.Prefs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Spreads independent per-plane harmonization work across several threads.
+ * <p>
+ * The planes of an {@link ij.ImagePlus} are independent of each other, so the
+ * pixel harmonizers hand each plane to a {@link PlaneTask}. Every worker gets
+ * its own state (accessors, copiers, buffers) from a {@link Supplier} and pulls
+ * plane numbers until none are left. The calling thread is one of the workers.
+ * </p>
+ * <p>
+ * The number of threads defaults to ImageJ 1.x's {@link Prefs#getThreads()}
+ * and can be overridden with the {@code imagej.legacy.harmonizer.threads}
+ * system property or {@link #setThreadCount(int)}. A count of 1 disables
+ * parallel harmonization altogether.
+ * </p>
+ * <p>
+ * The helper threads come from one pool of at most that many threads, no
+ * matter how many harmonizations run at once; a harmonization that finds the
+ * pool busy simply does more of its planes itself. The pool is shut down by
+ * {@link #shutdown()} and started again when next needed.
+ * </p>
+ */
+public final class ParallelPlanes {
+
+	/** Planes smaller than this many pixels in total are not worth splitting. */
+	private static final long MIN_PARALLEL_PIXELS = 1 << 18;
+
+	private static final AtomicInteger threadNumber = new AtomicInteger();
+
+	private static volatile int threadCount = Integer.getInteger(
+		"imagej.legacy.harmonizer.threads", 0);
+
+	private static ThreadPoolExecutor executor;
+
+	private ParallelPlanes() {
+		// prevent instantiation of utility class
+	}
+
+	// -- ParallelPlanes methods --
+
+	/**
+	 * Work done on a single plane by a worker.
+	 * 
+	 * @param <S> The type of the per-worker state
+	 */
+	public interface PlaneTask<S> {
+
+		/**
+		 * @param state The calling worker's own state
+		 * @param plane The 0-based index of the plane to process
+		 */
+		void process(S state, int plane);
+	}
+
+	/**
+	 * Gets the number of threads used to harmonize planes. Values less than 1
+	 * mean the count is taken from {@link Prefs#getThreads()}.
+	 */
+	public static int getThreadCount() {
+		final int count = threadCount;
+		return count > 0 ? count : Prefs.getThreads();
+	}
+
+	/**
+	 * Sets the number of threads used to harmonize planes. Pass 1 to harmonize
+	 * on the calling thread only, or 0 to follow {@link Prefs#getThreads()}.
+	 */
+	public static void setThreadCount(final int count) {
+		threadCount = count;
+	}
+
+	/**
+	 * Processes planes {@code 0..planeCount-1}, in parallel when there is enough
+	 * work to make it worthwhile.
+	 * 
+	 * @param planeCount The number of planes
+	 * @param planeSize The number of pixels in each plane
+	 * @param parallel False to force processing on the calling thread
+	 * @param stateFactory Makes the state for each worker
+	 * @param task The work to do per plane
+	 */
+	public static <S> void forEachPlane(final int planeCount,
+		final long planeSize, final boolean parallel,
+		final Supplier<S> stateFactory, final PlaneTask<S> task)
+	{
+		int workers = parallel ? Math.min(getThreadCount(), planeCount) : 1;
+		if (planeSize * planeCount < MIN_PARALLEL_PIXELS) workers = 1;
+		if (workers <= 1) {
+			final S state = stateFactory.get();
+			for (int p = 0; p < planeCount; p++) {
+				task.process(state, p);
+			}
+			return;
+		}
+
+		final AtomicInteger nextPlane = new AtomicInteger();
+		final Runnable worker = () -> {
+			final S state = stateFactory.get();
+			int p;
+			while ((p = nextPlane.getAndIncrement()) < planeCount) {
+				task.process(state, p);
+			}
+		};
+		final List<Future<?>> futures = new ArrayList<>();
+		try {
+			final ExecutorService service = executor();
+			for (int i = 1; i < workers; i++) {
+				futures.add(service.submit(worker));
+			}
+		}
+		catch (final RejectedExecutionException exc) {
+			// NB - the pool is shutting down; the calling thread does the rest
+		}
+		RuntimeException failure = null;
+		try {
+			worker.run();
+		}
+		catch (final RuntimeException exc) {
+			failure = exc;
+			// make the other workers stop early
+			nextPlane.set(planeCount);
+		}
+		boolean interrupted = false;
+		for (final Future<?> future : futures) {
+			// NB - a helper that has not started yet has nothing left to do;
+			// waiting for it could block on pool threads waiting in turn
+			if (future.cancel(false)) continue;
+			while (true) {
+				try {
+					future.get();
+					break;
+				}
+				catch (final InterruptedException exc) {
+					// NB - the planes must be finished before returning
+					interrupted = true;
+				}
+				catch (final ExecutionException exc) {
+					if (failure == null) {
+						final Throwable cause = exc.getCause();
+						failure = cause instanceof RuntimeException ?
+							(RuntimeException) cause : new RuntimeException(cause);
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		if (failure != null) throw failure;
+	}
+
+	/**
+	 * Gets the pixels of a plane of an {@link ImageStack} in a way that is safe
+	 * for several workers to call at once. A {@link ij.VirtualStack} typically
+	 * reuses one processor whose pixels change on every getProcessor() call, so
+	 * for virtual stacks the plane is fetched under the stack's lock and copied.
+	 * 
+	 * @param stack The stack to read from
+	 * @param n The 1-based plane number
+	 */
+	public static Object getPixels(final ImageStack stack, final int n) {
+		if (!stack.isVirtual()) return stack.getPixels(n);
+		synchronized (stack) {
+			return copyOf(stack.getPixels(n));
+		}
+	}
+
+	/**
+	 * Stops the helper threads once they are idle. Harmonizations still
+	 * running finish their planes on their calling threads.
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) executor.shutdown();
+		executor = null;
+	}
+
+	// -- Helper methods --
+
+	private static Object copyOf(final Object pixels) {
+		if (pixels instanceof byte[]) return ((byte[]) pixels).clone();
+		if (pixels instanceof short[]) return ((short[]) pixels).clone();
+		if (pixels instanceof float[]) return ((float[]) pixels).clone();
+		if (pixels instanceof int[]) return ((int[]) pixels).clone();
+		return pixels;
+	}
+
+	private static synchronized ExecutorService executor() {
+		if (executor == null) {
+			// NB - the calling thread is a worker too
+			final int helpers = Math.max(1, getThreadCount() - 1);
+			executor = new ThreadPoolExecutor(helpers, helpers, 30,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new HarmonizerThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Makes daemon threads in the top level thread group. This keeps pooled
+	 * threads out of the {@link net.imagej.legacy.command.LegacyThreadGroup} of
+	 * whichever legacy command happened to start them, which would otherwise
+	 * wait for them to die.
+	 */
+	private static class HarmonizerThreadFactory implements ThreadFactory {
+
+		private final ThreadGroup group;
+
+		public HarmonizerThreadFactory() {
+			ThreadGroup g = Thread.currentThread().getThreadGroup();
+			while (g.getParent() != null) {
+				g = g.getParent();
+			}
+			group = g;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(group, r, "imagej-legacy-harmonizer-" +
+				threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
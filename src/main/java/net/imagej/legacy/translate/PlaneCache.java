@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import net.imagej.Dataset;
+import net.imagej.event.DataUpdatedEvent;
+import net.imagej.event.DatasetRestructuredEvent;
+
+import org.scijava.Context;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.event.EventSubscriber;
+
+/**
+ * A least recently used cache of the legacy ImageJ planes of a
+ * {@link Dataset}, bounded by a memory budget. It backs the virtual stacks
+ * that convert planes on demand, {@link MergedRgbVirtualStack} and
+ * {@link LazyGrayVirtualStack}.
+ * <p>
+ * A plane is loaded the first time it is asked for, into the array of the
+ * plane evicted last if there is one. The cache is cleared whenever the
+ * Dataset is restructured, or reports that its data was updated by anyone but
+ * the owning stack through {@link #updateDataset()}.
+ * </p>
+ * 
+ * @param <T> The type of the pixel arrays
+ */
+class PlaneCache<T> {
+
+	/** Fills a pixel array with the contents of a plane. */
+	interface Loader<T> {
+
+		/**
+		 * @param n The 1-based number of the plane
+		 * @param pixels The array to fill
+		 */
+		void load(int n, T pixels);
+	}
+
+	// -- instance variables --
+
+	private final Dataset ds;
+	private final int size;
+	private final long planeBytes;
+	private final Supplier<T> factory;
+	private final Loader<T> loader;
+	private final Map<Integer, T> planes;
+	private int capacity;
+	private T spare;
+	private boolean dirty;
+	private boolean writing;
+
+	@SuppressWarnings("unused")
+	private final List<EventSubscriber<?>> subscribers;
+
+	// -- constructor --
+
+	/**
+	 * Constructs a PlaneCache, with the budget given in megabytes by a system
+	 * property.
+	 * 
+	 * @param ds The Dataset whose planes are cached
+	 * @param size The number of planes
+	 * @param planeBytes The size of a pixel array, in bytes
+	 * @param property The system property holding the budget
+	 * @param defaultMB The budget if the property is not set
+	 * @param factory Makes a new pixel array
+	 * @param loader Fills a pixel array with a plane
+	 */
+	PlaneCache(final Dataset ds, final int size, final long planeBytes,
+		final String property, final long defaultMB, final Supplier<T> factory,
+		final Loader<T> loader)
+	{
+		this.ds = ds;
+		this.size = size;
+		this.planeBytes = planeBytes;
+		this.factory = factory;
+		this.loader = loader;
+		planes = new LinkedHashMap<Integer, T>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer, T> eldest) {
+				if (size() <= capacity) return false;
+				spare = eldest.getValue();
+				return true;
+			}
+		};
+		setSize(Long.getLong(property, defaultMB) << 20);
+		final Context context = ds.getContext();
+		final EventService eventService =
+			context == null ? null : context.getService(EventService.class);
+		subscribers =
+			eventService == null ? null : eventService.subscribe(this);
+	}
+
+	// -- PlaneCache methods --
+
+	/**
+	 * Sets the memory budget. A budget smaller than a single plane disables
+	 * caching.
+	 * 
+	 * @param bytes The maximum number of bytes of planes to keep
+	 */
+	synchronized void setSize(final long bytes) {
+		capacity = (int) Math.min(size, Math.max(0, bytes / planeBytes));
+		planes.clear();
+		spare = null;
+	}
+
+	/**
+	 * Gets the cached pixels of plane n, loading them if needed. Changes to
+	 * the array are changes to the cached plane.
+	 * 
+	 * @return The pixels, or null if caching is disabled
+	 */
+	synchronized T get(final int n) {
+		if (capacity == 0) return null;
+		T pixels = planes.get(n);
+		if (pixels == null) {
+			pixels = spare != null ? spare : factory.get();
+			spare = null;
+			loader.load(n, pixels);
+			planes.put(n, pixels);
+		}
+		return pixels;
+	}
+
+	/** Forgets all cached planes. */
+	synchronized void clear() {
+		planes.clear();
+	}
+
+	/** Notes that the owning stack wrote pixels into the Dataset. */
+	synchronized void written() {
+		dirty = true;
+	}
+
+	/**
+	 * Updates the Dataset once if pixels were {@link #written()} since the last
+	 * call. The cached planes are kept, as they caused the update.
+	 */
+	synchronized void updateDataset() {
+		if (!dirty) return;
+		dirty = false;
+		writing = true;
+		try {
+			ds.update();
+		}
+		finally {
+			writing = false;
+		}
+	}
+
+	// -- Event handlers --
+
+	/** @param event */
+	@EventHandler
+	private synchronized void onEvent(final DataUpdatedEvent event) {
+		if (!writing && event.getObject() == ds) planes.clear();
+	}
+
+	/** @param event */
+	@EventHandler
+	private synchronized void onEvent(final DatasetRestructuredEvent event) {
+		if (event.getObject() == ds) planes.clear();
+	}
+
+}
@@ -0,0 +1,217 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Detects which planes of an {@link ImagePlus} a legacy plugin changed.
+ * <p>
+ * Before the plugin runs, {@link #snapshot(ImagePlus)} records the identity of
+ * each plane's pixel array along with a 64-bit fingerprint of its contents.
+ * Afterwards {@link #changedPlanes(ImagePlus)} reports the planes whose array
+ * was replaced or whose fingerprint differs, so that only those need to be
+ * copied back into the paired {@link net.imagej.Dataset}. The current plane is
+ * always reported as changed, because plugins may have modified it through the
+ * ImagePlus' processor rather than through the stack.
+ * </p>
+ * <p>
+ * Virtual stacks are not fingerprinted; all of their planes are assumed to
+ * have changed.
+ * </p>
+ */
+public class PlaneChangeDetector {
+
+	private static final long OFFSET = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private final Map<ImagePlus, Snapshot> snapshots = new WeakHashMap<>();
+
+	// -- PlaneChangeDetector methods --
+
+	/**
+	 * Records the state of every plane of the given {@link ImagePlus}. Does
+	 * nothing for null or virtual stack images.
+	 */
+	public void snapshot(final ImagePlus imp) {
+		if (imp == null) return;
+		final ImageStack stack = imp.getStack();
+		if (stack.isVirtual() || stack.getSize() == 0) {
+			snapshots.remove(imp);
+			return;
+		}
+		final Snapshot snapshot = new Snapshot(stack);
+		ParallelPlanes.forEachPlane(snapshot.size, (long) snapshot.width *
+			snapshot.height, true, () -> null, (state, p) -> {
+				final Object pixels = stack.getPixels(p + 1);
+				snapshot.arrays[p] = pixels;
+				snapshot.fingerprints[p] = fingerprint(pixels);
+			});
+		snapshots.put(imp, snapshot);
+	}
+
+	/**
+	 * Returns the set of 0-based plane indices that changed since the last
+	 * {@link #snapshot(ImagePlus)} of the given {@link ImagePlus}, or null if
+	 * every plane must be assumed changed (no snapshot, virtual stack, or the
+	 * stack was reshaped).
+	 */
+	public BitSet changedPlanes(final ImagePlus imp) {
+		final Snapshot snapshot = snapshots.get(imp);
+		if (snapshot == null) return null;
+		final ImageStack stack = imp.getStack();
+		if (!snapshot.matches(stack)) return null;
+		final boolean[] changed = new boolean[snapshot.size];
+		ParallelPlanes.forEachPlane(snapshot.size, (long) snapshot.width *
+			snapshot.height, true, () -> null, (state, p) -> {
+				final Object pixels = stack.getPixels(p + 1);
+				changed[p] = pixels != snapshot.arrays[p] ||
+					fingerprint(pixels) != snapshot.fingerprints[p];
+			});
+		final BitSet planes = new BitSet(snapshot.size);
+		for (int p = 0; p < changed.length; p++) {
+			if (changed[p]) planes.set(p);
+		}
+		planes.set(imp.getCurrentSlice() - 1);
+		return planes;
+	}
+
+	/** Forgets the snapshot of the given {@link ImagePlus}, if any. */
+	public void forget(final ImagePlus imp) {
+		snapshots.remove(imp);
+	}
+
+	/** Forgets all snapshots. */
+	public void clear() {
+		snapshots.clear();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Computes a 64-bit FNV-1a style fingerprint of a pixel array. Four
+	 * independent lanes are hashed at once to keep the multiplier busy.
+	 */
+	static long fingerprint(final Object pixels) {
+		long h0 = OFFSET, h1 = OFFSET ^ 1, h2 = OFFSET ^ 2, h3 = OFFSET ^ 3;
+		final int n;
+		int i = 0;
+		if (pixels instanceof byte[]) {
+			final byte[] a = (byte[]) pixels;
+			n = a.length;
+			for (; i + 3 < n; i += 4) {
+				h0 = (h0 ^ a[i]) * PRIME;
+				h1 = (h1 ^ a[i + 1]) * PRIME;
+				h2 = (h2 ^ a[i + 2]) * PRIME;
+				h3 = (h3 ^ a[i + 3]) * PRIME;
+			}
+			for (; i < n; i++)
+				h0 = (h0 ^ a[i]) * PRIME;
+		}
+		else if (pixels instanceof short[]) {
+			final short[] a = (short[]) pixels;
+			n = a.length;
+			for (; i + 3 < n; i += 4) {
+				h0 = (h0 ^ a[i]) * PRIME;
+				h1 = (h1 ^ a[i + 1]) * PRIME;
+				h2 = (h2 ^ a[i + 2]) * PRIME;
+				h3 = (h3 ^ a[i + 3]) * PRIME;
+			}
+			for (; i < n; i++)
+				h0 = (h0 ^ a[i]) * PRIME;
+		}
+		else if (pixels instanceof float[]) {
+			final float[] a = (float[]) pixels;
+			n = a.length;
+			for (; i + 3 < n; i += 4) {
+				h0 = (h0 ^ Float.floatToRawIntBits(a[i])) * PRIME;
+				h1 = (h1 ^ Float.floatToRawIntBits(a[i + 1])) * PRIME;
+				h2 = (h2 ^ Float.floatToRawIntBits(a[i + 2])) * PRIME;
+				h3 = (h3 ^ Float.floatToRawIntBits(a[i + 3])) * PRIME;
+			}
+			for (; i < n; i++)
+				h0 = (h0 ^ Float.floatToRawIntBits(a[i])) * PRIME;
+		}
+		else if (pixels instanceof int[]) {
+			final int[] a = (int[]) pixels;
+			n = a.length;
+			for (; i + 3 < n; i += 4) {
+				h0 = (h0 ^ a[i]) * PRIME;
+				h1 = (h1 ^ a[i + 1]) * PRIME;
+				h2 = (h2 ^ a[i + 2]) * PRIME;
+				h3 = (h3 ^ a[i + 3]) * PRIME;
+			}
+			for (; i < n; i++)
+				h0 = (h0 ^ a[i]) * PRIME;
+		}
+		else {
+			// unknown or missing pixels : rely on the array identity check
+			return 0;
+		}
+		long h = h0;
+		h = (h ^ h1) * PRIME;
+		h = (h ^ h2) * PRIME;
+		h = (h ^ h3) * PRIME;
+		return (h ^ n) * PRIME;
+	}
+
+	// -- Helper classes --
+
+	/** The recorded state of a stack's planes. */
+	private static class Snapshot {
+
+		private final int size;
+		private final int width;
+		private final int height;
+		private final Object[] arrays;
+		private final long[] fingerprints;
+
+		public Snapshot(final ImageStack stack) {
+			size = stack.getSize();
+			width = stack.getWidth();
+			height = stack.getHeight();
+			arrays = new Object[size];
+			fingerprints = new long[size];
+		}
+
+		private boolean matches(final ImageStack stack) {
+			return !stack.isVirtual() && stack.getSize() == size &&
+				stack.getWidth() == width && stack.getHeight() == height;
+		}
+	}
+}
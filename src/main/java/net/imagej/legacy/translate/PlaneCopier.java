@@ -0,0 +1,515 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import java.lang.reflect.Array;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.PlanarAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Copies whole planes of pixels between a gray {@link Dataset} and legacy
+ * ImageJ pixel arrays. When the Dataset is an {@link ArrayImg} or a planar
+ * image of a primitive type and has X and Y as its first two axes the plane is
+ * read from (or written to) the backing primitive array directly. Otherwise the
+ * plane is visited in row major order with a {@link Cursor} over a two
+ * dimensional hyperslice of the Dataset. In both cases data travels a row at a
+ * time through a small buffer, and the common same type pairings are copied
+ * without any conversion at all.
+ * <p>
+ * Values follow the rules {@link GrayPixelHarmonizer} has always used: signed
+ * 16-bit data is offset by 32768 on its way to legacy ImageJ, {@link BitType}
+ * data becomes 0/255, and data coming back from legacy ImageJ is range clamped
+ * to the Dataset's type.
+ * </p>
+ * <p>
+ * A PlaneCopier keeps scratch state and is not thread safe.
+ * </p>
+ */
+class PlaneCopier {
+
+	// -- instance variables --
+
+	private final Dataset ds;
+	private final int w;
+	private final int h;
+	private final int xIndex;
+	private final int yIndex;
+	private final Storage storage;
+	private final Object arrayStore;
+	private final boolean planar;
+	private final boolean signed16BitData;
+	private final boolean bitData;
+	private final double typeMin;
+	private final double typeMax;
+	private final double[] row;
+	private int nativeOffset;
+
+	// -- constructor --
+
+	/**
+	 * Constructs a PlaneCopier for the given {@link Dataset} whose legacy ImageJ
+	 * planes are w by h pixels.
+	 */
+	public PlaneCopier(final Dataset ds, final int w, final int h) {
+		this.ds = ds;
+		this.w = w;
+		this.h = h;
+		xIndex = ds.dimensionIndex(Axes.X);
+		yIndex = ds.dimensionIndex(Axes.Y);
+		final RealType<?> type = ds.getType();
+		signed16BitData = type instanceof ShortType;
+		bitData = type instanceof BitType;
+		typeMin = type.getMinValue();
+		typeMax = type.getMaxValue();
+		row = new double[w];
+
+		Storage s = null;
+		Object store = null;
+		boolean isPlanar = false;
+		if (xIndex == 0 && yIndex == 1) {
+			s = Storage.of(type);
+			final Img<?> img = ds.getImgPlus().getImg();
+			if (s == null) {
+				// no direct access: fall back to cursors
+			}
+			else if (img instanceof PlanarAccess) {
+				isPlanar = true;
+			}
+			else if (img instanceof ArrayImg) {
+				final Object access = ((ArrayImg<?, ?>) img).update(null);
+				if (access instanceof ArrayDataAccess) {
+					store = ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+				}
+				if (!s.matches(store)) s = null;
+			}
+			else s = null;
+		}
+		storage = s;
+		arrayStore = store;
+		planar = isPlanar;
+	}
+
+	// -- PlaneCopier methods --
+
+	/**
+	 * Copies the Dataset plane at the given position into a legacy ImageJ pixel
+	 * array. Only the non XY entries of the position are consulted.
+	 * 
+	 * @param pos Position of the plane within the Dataset
+	 * @param pixels A byte[], short[], float[] or int[] legacy ImageJ plane
+	 */
+	public void toLegacy(final long[] pos, final Object pixels) {
+		final Object src = nativePlane(pos);
+		if (src != null && copyToLegacy(src, pixels)) return;
+		final Cursor<? extends RealType<?>> cursor =
+			src == null ? planeCursor(pos) : null;
+		for (int y = 0; y < h; y++) {
+			if (src != null) {
+				readNative(src, nativeOffset + y * w);
+			}
+			else {
+				for (int x = 0; x < w; x++) {
+					row[x] = cursor.next().getRealDouble();
+				}
+			}
+			if (signed16BitData) {
+				for (int x = 0; x < w; x++)
+					row[x] += 32768.0;
+			}
+			else if (bitData) {
+				for (int x = 0; x < w; x++)
+					if (row[x] > 0) row[x] = 255;
+			}
+			writeLegacy(pixels, y * w);
+		}
+	}
+
+	/**
+	 * Copies a legacy ImageJ pixel array into the Dataset plane at the given
+	 * position. Only the non XY entries of the position are consulted. Values
+	 * are range clamped to the Dataset's type.
+	 * 
+	 * @param pos Position of the plane within the Dataset
+	 * @param pixels A byte[], short[], float[] or int[] legacy ImageJ plane
+	 */
+	public void toDataset(final long[] pos, final Object pixels) {
+		final Object dst = nativePlane(pos);
+		if (dst != null && copyToDataset(pixels, dst)) return;
+		final Cursor<? extends RealType<?>> cursor =
+			dst == null ? planeCursor(pos) : null;
+		for (int y = 0; y < h; y++) {
+			readLegacy(pixels, y * w);
+			for (int x = 0; x < w; x++) {
+				double value = row[x];
+				if (signed16BitData) value -= 32768.0;
+				if (value < typeMin) value = typeMin;
+				else if (value > typeMax) value = typeMax;
+				row[x] = value;
+			}
+			if (dst != null) {
+				writeNative(dst, nativeOffset + y * w);
+			}
+			else {
+				for (int x = 0; x < w; x++) {
+					cursor.next().setReal(row[x]);
+				}
+			}
+		}
+	}
+
+	// -- private helpers --
+
+	/**
+	 * Returns the primitive array that backs the plane at the given position and
+	 * records where the plane starts within it. Returns null if the plane cannot
+	 * be accessed directly.
+	 */
+	private Object nativePlane(final long[] pos) {
+		if (storage == null) return null;
+		long index = 0;
+		for (int d = pos.length - 1; d >= 2; d--) {
+			index = index * ds.dimension(d) + pos[d];
+		}
+		final Object array;
+		final long offset;
+		if (planar) {
+			array = ds.getPlane((int) index, false);
+			offset = 0;
+		}
+		else {
+			array = arrayStore;
+			offset = index * w * h;
+		}
+		if (!storage.matches(array)) return null;
+		if (offset + (long) w * h > Array.getLength(array)) {
+			return null;
+		}
+		nativeOffset = (int) offset;
+		return array;
+	}
+
+	/** Returns a row major {@link Cursor} over the plane at a given position. */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Cursor<? extends RealType<?>> planeCursor(final long[] pos) {
+		return planeCursor((RandomAccessibleInterval) ds.getImgPlus(), pos);
+	}
+
+	private <T extends RealType<T>> Cursor<T> planeCursor(
+		final RandomAccessibleInterval<T> img, final long[] pos)
+	{
+		RandomAccessibleInterval<T> plane = img;
+		for (int d = img.numDimensions() - 1; d >= 0; d--) {
+			if (d == xIndex || d == yIndex) continue;
+			plane = Views.hyperSlice(plane, d, pos[d]);
+		}
+		if (yIndex < xIndex) plane = Views.permute(plane, 0, 1);
+		return Views.flatIterable(plane).cursor();
+	}
+
+	/**
+	 * Copies a whole plane for the pairings that need no per pixel conversion
+	 * logic. Returns false if the pairing is not one of them.
+	 */
+	private boolean copyToLegacy(final Object src, final Object pixels) {
+		final int n = w * h;
+		switch (storage) {
+			case UBYTE:
+				if (!(pixels instanceof byte[])) return false;
+				System.arraycopy(src, nativeOffset, pixels, 0, n);
+				return true;
+			case USHORT:
+				if (!(pixels instanceof short[])) return false;
+				System.arraycopy(src, nativeOffset, pixels, 0, n);
+				return true;
+			case FLOAT:
+				if (!(pixels instanceof float[])) return false;
+				System.arraycopy(src, nativeOffset, pixels, 0, n);
+				return true;
+			case SHORT:
+				if (!(pixels instanceof short[])) return false;
+				final short[] s = (short[]) src;
+				final short[] d = (short[]) pixels;
+				// NB - same as adding 32768 and narrowing to unsigned 16 bits
+				for (int i = 0; i < n; i++)
+					d[i] = (short) (s[nativeOffset + i] ^ 0x8000);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Copies a whole plane for the pairings that need no per pixel conversion
+	 * logic. Returns false if the pairing is not one of them.
+	 */
+	private boolean copyToDataset(final Object pixels, final Object dst) {
+		final int n = w * h;
+		switch (storage) {
+			case UBYTE:
+				if (!(pixels instanceof byte[])) return false;
+				System.arraycopy(pixels, 0, dst, nativeOffset, n);
+				return true;
+			case USHORT:
+				if (!(pixels instanceof short[])) return false;
+				System.arraycopy(pixels, 0, dst, nativeOffset, n);
+				return true;
+			case SHORT:
+				if (!(pixels instanceof short[])) return false;
+				final short[] s = (short[]) pixels;
+				final short[] d = (short[]) dst;
+				// NB - same as subtracting 32768 from the unsigned 16 bit value
+				for (int i = 0; i < n; i++)
+					d[nativeOffset + i] = (short) (s[i] ^ 0x8000);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** Reads a row of a primitive Dataset plane into the row buffer. */
+	private void readNative(final Object src, final int offset) {
+		switch (storage) {
+			case BYTE: {
+				final byte[] a = (byte[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x];
+				break;
+			}
+			case UBYTE: {
+				final byte[] a = (byte[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x] & 0xff;
+				break;
+			}
+			case SHORT: {
+				final short[] a = (short[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x];
+				break;
+			}
+			case USHORT: {
+				final short[] a = (short[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x] & 0xffff;
+				break;
+			}
+			case INT: {
+				final int[] a = (int[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x];
+				break;
+			}
+			case UINT: {
+				final int[] a = (int[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x] & 0xffffffffL;
+				break;
+			}
+			case LONG: {
+				final long[] a = (long[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x];
+				break;
+			}
+			case FLOAT: {
+				final float[] a = (float[]) src;
+				for (int x = 0; x < w; x++)
+					row[x] = a[offset + x];
+				break;
+			}
+			case DOUBLE:
+				System.arraycopy(src, offset, row, 0, w);
+				break;
+		}
+	}
+
+	/**
+	 * Writes the row buffer into a primitive Dataset plane. Integer types are
+	 * rounded the same way their setReal() methods round.
+	 */
+	private void writeNative(final Object dst, final int offset) {
+		switch (storage) {
+			case BYTE:
+			case UBYTE: {
+				final byte[] a = (byte[]) dst;
+				for (int x = 0; x < w; x++)
+					a[offset + x] = (byte) Util.round(row[x]);
+				break;
+			}
+			case SHORT:
+			case USHORT: {
+				final short[] a = (short[]) dst;
+				for (int x = 0; x < w; x++)
+					a[offset + x] = (short) Util.round(row[x]);
+				break;
+			}
+			case INT:
+			case UINT: {
+				final int[] a = (int[]) dst;
+				for (int x = 0; x < w; x++)
+					a[offset + x] = (int) Util.round(row[x]);
+				break;
+			}
+			case LONG: {
+				final long[] a = (long[]) dst;
+				for (int x = 0; x < w; x++)
+					a[offset + x] = Util.round(row[x]);
+				break;
+			}
+			case FLOAT: {
+				final float[] a = (float[]) dst;
+				for (int x = 0; x < w; x++)
+					a[offset + x] = (float) row[x];
+				break;
+			}
+			case DOUBLE:
+				System.arraycopy(row, 0, dst, offset, w);
+				break;
+		}
+	}
+
+	/**
+	 * Reads a row of a legacy ImageJ plane into the row buffer. Values match
+	 * those reported by {@code ImageProcessor.getf()}.
+	 */
+	private void readLegacy(final Object pixels, final int offset) {
+		if (pixels instanceof byte[]) {
+			final byte[] a = (byte[]) pixels;
+			for (int x = 0; x < w; x++)
+				row[x] = a[offset + x] & 0xff;
+		}
+		else if (pixels instanceof short[]) {
+			final short[] a = (short[]) pixels;
+			for (int x = 0; x < w; x++)
+				row[x] = a[offset + x] & 0xffff;
+		}
+		else if (pixels instanceof float[]) {
+			final float[] a = (float[]) pixels;
+			for (int x = 0; x < w; x++)
+				row[x] = a[offset + x];
+		}
+		else if (pixels instanceof int[]) {
+			final int[] a = (int[]) pixels;
+			for (int x = 0; x < w; x++)
+				row[x] = (float) a[offset + x];
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported pixel array: " +
+				pixels);
+		}
+	}
+
+	/**
+	 * Writes the row buffer into a legacy ImageJ plane. Values are narrowed as
+	 * {@code ImageProcessor.setf()} narrows them.
+	 */
+	private void writeLegacy(final Object pixels, final int offset) {
+		if (pixels instanceof byte[]) {
+			final byte[] a = (byte[]) pixels;
+			for (int x = 0; x < w; x++)
+				a[offset + x] = (byte) (float) row[x];
+		}
+		else if (pixels instanceof short[]) {
+			final short[] a = (short[]) pixels;
+			for (int x = 0; x < w; x++)
+				a[offset + x] = (short) (float) row[x];
+		}
+		else if (pixels instanceof float[]) {
+			final float[] a = (float[]) pixels;
+			for (int x = 0; x < w; x++)
+				a[offset + x] = (float) row[x];
+		}
+		else if (pixels instanceof int[]) {
+			final int[] a = (int[]) pixels;
+			for (int x = 0; x < w; x++)
+				a[offset + x] = (int) (float) row[x];
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported pixel array: " +
+				pixels);
+		}
+	}
+
+	// -- helper classes --
+
+	/** The primitive storage layouts that can be accessed directly. */
+	private enum Storage {
+		BYTE(byte[].class), UBYTE(byte[].class), SHORT(short[].class),
+		USHORT(short[].class), INT(int[].class), UINT(int[].class),
+		LONG(long[].class), FLOAT(float[].class), DOUBLE(double[].class);
+
+		private final Class<?> arrayClass;
+
+		private Storage(final Class<?> arrayClass) {
+			this.arrayClass = arrayClass;
+		}
+
+		private boolean matches(final Object array) {
+			return arrayClass.isInstance(array);
+		}
+
+		/** Returns the storage of a type, or null if it has no direct layout. */
+		private static Storage of(final RealType<?> type) {
+			if (type instanceof UnsignedByteType) return UBYTE;
+			if (type instanceof ByteType) return BYTE;
+			if (type instanceof UnsignedShortType) return USHORT;
+			if (type instanceof ShortType) return SHORT;
+			if (type instanceof UnsignedIntType) return UINT;
+			if (type instanceof IntType) return INT;
+			if (type instanceof LongType) return LONG;
+			if (type instanceof FloatType) return FLOAT;
+			if (type instanceof DoubleType) return DOUBLE;
+			return null;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+import java.lang.reflect.Array;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A copy of the current plane of an {@link ImagePlus}, kept in the plane's
+ * native pixel type (byte[], short[], float[] or int[]).
+ * <p>
+ * The copy buffers are pooled by pixel type and plane size, so capturing
+ * planes of the same shape over and over does not allocate. Only the most
+ * recently used buffers are kept. A snapshot is not thread safe for capturing
+ * but may be read from several threads at once.
+ * </p>
+ */
+public class PlaneSnapshot {
+
+	/** The number of differently shaped buffers kept around. */
+	private static final int POOL_SIZE = 4;
+
+	private final Map<String, Object> pool = new LinkedHashMap<String, Object>(
+		POOL_SIZE, 0.75f, true)
+	{
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest)
+		{
+			return size() > POOL_SIZE;
+		}
+	};
+
+	private Object pixels;
+	private int position;
+
+	// -- PlaneSnapshot methods --
+
+	/**
+	 * Copies the pixels of the current plane of the given {@link ImagePlus}.
+	 */
+	public void capture(final ImagePlus imp) {
+		final ImageProcessor proc = imp.getProcessor();
+		final Object src = proc == null ? null : proc.getPixels();
+		if (src == null) {
+			clear();
+			return;
+		}
+		final int length = Array.getLength(src);
+		final String key = src.getClass().getName() + ":" + length;
+		Object buffer = pool.get(key);
+		if (buffer == null) {
+			buffer = Array.newInstance(src.getClass().getComponentType(), length);
+			pool.put(key, buffer);
+		}
+		System.arraycopy(src, 0, buffer, 0, length);
+		pixels = buffer;
+		position = imp.getCurrentSlice();
+	}
+
+	/**
+	 * Forgets the captured plane. The pooled buffers are kept.
+	 */
+	public void clear() {
+		pixels = null;
+		position = 0;
+	}
+
+	/**
+	 * Gets the 1-based slice number of the captured plane, or 0 if there is
+	 * none.
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Gets the captured pixels if they belong to the given 1-based slice number.
+	 * 
+	 * @return A byte[], short[], float[] or int[], or null if no plane was
+	 *         captured for the slice
+	 */
+	public Object getPixels(final int slice) {
+		return slice == position ? pixels : null;
+	}
+
+}
@@ -35,6 +35,10 @@ import ij.IJ;
 import ij.plugin.filter.Analyzer;
 import ij.text.TextWindow;
 
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.imagej.legacy.convert.ResultsTableWrapper;
 import net.imagej.table.DefaultResultsTable;
 import net.imagej.table.ResultsTable;
 import net.imagej.table.Table;
@@ -53,6 +57,12 @@ public class ResultsTableHarmonizer {
 
 	private final DisplayService displayService;
 
+	// state of the last synchronization, used to detect row-only growth
+	private ij.measure.ResultsTable syncedLegacyTable;
+	private ResultsTable syncedModernTable;
+	private int[] syncedColumns;
+	private int syncedRows;
+
 	// -- constructor --
 
 	public ResultsTableHarmonizer(DisplayService dispSrv) {
@@ -71,6 +81,7 @@ public class ResultsTableHarmonizer {
 		TableDisplay display = displayService.getActiveDisplay(TableDisplay.class);
 		ResultsTable table = getFirstResultsTable(display);
 		if (table == null) {
+			forget();
 			Analyzer.setResultsTable(null);
 			return;
 		}
@@ -94,19 +105,25 @@ public class ResultsTableHarmonizer {
 				}
 			}
 		}
-		for (int r = 0; r < table.getRowCount(); r++) {
+		final int rowCount = table.getRowCount();
+		// transfer whole columns, growing the IJ1 table only once
+		final ResultsTableWrapper ij1Columns = new ResultsTableWrapper(ij1Table);
+		for (int c = 0; c < table.getColumnCount(); c++) {
+			String header = table.getColumnHeader(c);
+			int ij1ColIndex = c;
+			if (header != null) {
+				ij1ColIndex = ij1Table.getColumnIndex(header);
+			}
+			ij1Columns.setValues(ij1ColIndex, table.get(c).getArray(), rowCount);
+		}
+		// NB - a table without columns has rows all the same
+		while (ij1Table.getCounter() < rowCount) {
 			ij1Table.incrementCounter();
+		}
+		for (int r = 0; r < rowCount; r++) {
 			ij1Table.setLabel(table.getRowHeader(r), r);
-			for (int c = 0; c < table.getColumnCount(); c++) {
-				String header = table.getColumnHeader(c);
-				int ij1ColIndex = c;
-				if (header != null) {
-					ij1ColIndex = ij1Table.getColumnIndex(header);
-				}
-				double value = table.get(c, r);
-				ij1Table.setValue(ij1ColIndex, r, value);
-			}
 		}
+		remember(table, ij1Table, getLegacyColumns(ij1Table));
 		IJ.getTextPanel(); // HACK - force IJ1 to append data
 		Analyzer.setResultsTable(ij1Table);
 	}
@@ -118,6 +135,7 @@ public class ResultsTableHarmonizer {
 
 		// were there no ij1 results?
 		if (ij1Table == null) {
+			forget();
 			if (display == null) return;
 			if (table == null) return;
 			display.remove(table);
@@ -137,23 +155,22 @@ public class ResultsTableHarmonizer {
 			if (display != null) display.add(table);
 		}
 
-		// rebuild table
-		table.clear();
-		table.setRowCount(0);
-		for (int c = 0; c <= ij1Table.getLastColumn(); c++) {
-			if (ij1Table.columnExists(c)) {
-				table.appendColumn(ij1Table.getColumnHeading(c));
-			}
+		final int[] columns = getLegacyColumns(ij1Table);
+		final int rowCount = ij1Table.getCounter();
+		if (canAppend(table, ij1Table, columns)) {
+			// IJ1 only added rows since the last sync; copy just those
+			copyRows(table, ij1Table, columns, syncedRows, rowCount);
 		}
-		for (int r = 0; r < ij1Table.getCounter(); r++) {
-			table.appendRow(ij1Table.getLabel(r));
-			for (int modIjCol = 0, c = 0; c <= ij1Table.getLastColumn(); c++) {
-				if (ij1Table.columnExists(c)) {
-					double value = ij1Table.getValueAsDouble(c, r);
-					table.setValue(modIjCol++, r, value);
-				}
+		else {
+			// rebuild table
+			table.clear();
+			table.setRowCount(0);
+			for (int c : columns) {
+				table.appendColumn(ij1Table.getColumnHeading(c));
 			}
+			copyRows(table, ij1Table, columns, 0, rowCount);
 		}
+		remember(table, ij1Table, columns);
 
 		// close IJ1's table
 		TextWindow window = ij.measure.ResultsTable.getResultsWindow();
@@ -177,4 +194,92 @@ public class ResultsTableHarmonizer {
 		}
 		return null;
 	}
+
+	/** Gets the indices of the IJ1 columns which actually hold data. */
+	private int[] getLegacyColumns(ij.measure.ResultsTable ij1Table) {
+		int count = 0;
+		final int[] columns = new int[ij1Table.getLastColumn() + 1];
+		for (int c = 0; c <= ij1Table.getLastColumn(); c++) {
+			if (ij1Table.columnExists(c)) columns[count++] = c;
+		}
+		return Arrays.copyOf(columns, count);
+	}
+
+	/**
+	 * Copies rows {@code start} (inclusive) through {@code end} (exclusive) of
+	 * the given IJ1 columns into the same rows of the modern table, one whole
+	 * column at a time.
+	 */
+	private void copyRows(ResultsTable table, ij.measure.ResultsTable ij1Table,
+		int[] columns, int start, int end)
+	{
+		table.setRowCount(end);
+		for (int r = start; r < end; r++) {
+			table.setRowHeader(r, ij1Table.getLabel(r));
+		}
+		for (int i = 0; i < columns.length; i++) {
+			final double[] values = ij1Table.getColumnAsDoubles(columns[i]);
+			System.arraycopy(values, start, table.get(i).getArray(), start, end -
+				start);
+		}
+	}
+
+	/**
+	 * Tells whether the modern table still mirrors the first
+	 * {@link #syncedRows} rows of the IJ1 table, so that only the rows IJ1
+	 * appended since then need to be transferred. All previously synced rows
+	 * are compared, column by column, as IJ1 may have reset or rewritten the
+	 * table in place.
+	 */
+	private boolean canAppend(ResultsTable table,
+		ij.measure.ResultsTable ij1Table, int[] columns)
+	{
+		if (ij1Table != syncedLegacyTable || table != syncedModernTable) {
+			return false;
+		}
+		if (ij1Table.getCounter() <= syncedRows) return false;
+		if (table.getRowCount() != syncedRows) return false;
+		if (!Arrays.equals(columns, syncedColumns)) return false;
+		if (table.getColumnCount() != columns.length) return false;
+		for (int i = 0; i < columns.length; i++) {
+			if (!Objects.equals(table.getColumnHeader(i), ij1Table
+				.getColumnHeading(columns[i]))) return false;
+		}
+		for (int r = 0; r < syncedRows; r++) {
+			if (!label(table.getRowHeader(r)).equals(label(ij1Table.getLabel(r)))) {
+				return false;
+			}
+		}
+		for (int i = 0; i < columns.length; i++) {
+			final double[] modern = table.get(i).getArray();
+			final double[] legacy = ij1Table.getColumnAsDoubles(columns[i]);
+			if (legacy == null || legacy.length < syncedRows) return false;
+			// NB - compare bits, so NaN cells match
+			for (int r = 0; r < syncedRows; r++) {
+				if (Double.doubleToLongBits(modern[r]) != Double.doubleToLongBits(
+					legacy[r])) return false;
+			}
+		}
+		return true;
+	}
+
+	private String label(String label) {
+		return label == null ? "" : label;
+	}
+
+	private void remember(ResultsTable table, ij.measure.ResultsTable ij1Table,
+		int[] columns)
+	{
+		syncedModernTable = table;
+		syncedLegacyTable = ij1Table;
+		syncedColumns = columns;
+		syncedRows = ij1Table.getCounter();
+	}
+
+	private void forget() {
+		syncedModernTable = null;
+		syncedLegacyTable = null;
+		syncedColumns = null;
+		syncedRows = 0;
+	}
 }
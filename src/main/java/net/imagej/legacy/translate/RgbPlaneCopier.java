@@ -0,0 +1,247 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.PlanarAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+
+/**
+ * Packs and unpacks whole planes of pixels between a merged RGB
+ * {@link Dataset} and legacy ImageJ ARGB int[] arrays. When the Dataset is an
+ * {@link ArrayImg} or a planar image of {@link UnsignedByteType} and has X and
+ * Y as its first two axes the three channel planes are read from (or written
+ * to) their backing byte[] arrays directly, a row at a time. Otherwise each
+ * channel is visited in row major order with a {@link Cursor} over a two
+ * dimensional hyperslice of the Dataset.
+ * <p>
+ * An RgbPlaneCopier keeps scratch state and is not thread safe.
+ * </p>
+ */
+class RgbPlaneCopier {
+
+	// -- instance variables --
+
+	private final Dataset ds;
+	private final int w;
+	private final int h;
+	private final int xIndex;
+	private final int yIndex;
+	private final int cIndex;
+	private final boolean direct;
+	private final boolean planar;
+	private final byte[] arrayStore;
+	private final byte[][] channels = new byte[3][];
+	private final int[] offsets = new int[3];
+
+	// -- constructor --
+
+	/**
+	 * Constructs an RgbPlaneCopier for the given merged {@link Dataset} whose
+	 * legacy ImageJ planes are w by h pixels.
+	 */
+	public RgbPlaneCopier(final Dataset ds, final int w, final int h) {
+		this.ds = ds;
+		this.w = w;
+		this.h = h;
+		xIndex = ds.dimensionIndex(Axes.X);
+		yIndex = ds.dimensionIndex(Axes.Y);
+		cIndex = ds.dimensionIndex(Axes.CHANNEL);
+
+		boolean isDirect = false;
+		boolean isPlanar = false;
+		byte[] store = null;
+		if (xIndex == 0 && yIndex == 1 && cIndex >= 0 &&
+			ds.getType() instanceof UnsignedByteType)
+		{
+			final Img<?> img = ds.getImgPlus().getImg();
+			if (img instanceof PlanarAccess) {
+				isDirect = true;
+				isPlanar = true;
+			}
+			else if (img instanceof ArrayImg) {
+				final Object access = ((ArrayImg<?, ?>) img).update(null);
+				if (access instanceof ArrayDataAccess) {
+					final Object array =
+						((ArrayDataAccess<?>) access).getCurrentStorageArray();
+					if (array instanceof byte[]) {
+						store = (byte[]) array;
+						isDirect = true;
+					}
+				}
+			}
+		}
+		direct = isDirect;
+		planar = isPlanar;
+		arrayStore = store;
+	}
+
+	// -- RgbPlaneCopier methods --
+
+	/**
+	 * Packs the three channels starting at the given position into a legacy
+	 * ImageJ ARGB plane. The channel entry of the position names the red
+	 * channel; the green and blue channels follow it. Only the non XY entries of
+	 * the position are consulted.
+	 * 
+	 * @param pos Position of the red plane within the Dataset
+	 * @param pixels The legacy ImageJ ARGB plane to fill
+	 */
+	public void toLegacy(final long[] pos, final int[] pixels) {
+		if (nativePlanes(pos)) {
+			final byte[] r = channels[0], g = channels[1], b = channels[2];
+			for (int y = 0; y < h; y++) {
+				final int row = y * w;
+				final int ro = offsets[0] + row;
+				final int go = offsets[1] + row;
+				final int bo = offsets[2] + row;
+				for (int x = 0; x < w; x++) {
+					pixels[row + x] = 0xff000000 | //
+						(r[ro + x] & 0xff) << 16 | //
+						(g[go + x] & 0xff) << 8 | //
+						(b[bo + x] & 0xff);
+				}
+			}
+			return;
+		}
+		final Cursor<? extends RealType<?>> r = channelCursor(pos, 0);
+		final Cursor<? extends RealType<?>> g = channelCursor(pos, 1);
+		final Cursor<? extends RealType<?>> b = channelCursor(pos, 2);
+		final int n = w * h;
+		for (int i = 0; i < n; i++) {
+			final int rValue = ((int) r.next().getRealDouble()) & 0xff;
+			final int gValue = ((int) g.next().getRealDouble()) & 0xff;
+			final int bValue = ((int) b.next().getRealDouble()) & 0xff;
+			pixels[i] = 0xff000000 | (rValue << 16) | (gValue << 8) | bValue;
+		}
+	}
+
+	/**
+	 * Unpacks a legacy ImageJ ARGB plane into the three channels starting at
+	 * the given position. The channel entry of the position names the red
+	 * channel; the green and blue channels follow it. Only the non XY entries of
+	 * the position are consulted.
+	 * 
+	 * @param pos Position of the red plane within the Dataset
+	 * @param pixels The legacy ImageJ ARGB plane to read
+	 */
+	public void toDataset(final long[] pos, final int[] pixels) {
+		if (nativePlanes(pos)) {
+			final byte[] r = channels[0], g = channels[1], b = channels[2];
+			for (int y = 0; y < h; y++) {
+				final int row = y * w;
+				final int ro = offsets[0] + row;
+				final int go = offsets[1] + row;
+				final int bo = offsets[2] + row;
+				for (int x = 0; x < w; x++) {
+					final int argb = pixels[row + x];
+					r[ro + x] = (byte) (argb >> 16);
+					g[go + x] = (byte) (argb >> 8);
+					b[bo + x] = (byte) argb;
+				}
+			}
+			return;
+		}
+		final Cursor<? extends RealType<?>> r = channelCursor(pos, 0);
+		final Cursor<? extends RealType<?>> g = channelCursor(pos, 1);
+		final Cursor<? extends RealType<?>> b = channelCursor(pos, 2);
+		final int n = w * h;
+		for (int i = 0; i < n; i++) {
+			final int argb = pixels[i];
+			r.next().setReal((argb >> 16) & 0xff);
+			g.next().setReal((argb >> 8) & 0xff);
+			b.next().setReal(argb & 0xff);
+		}
+	}
+
+	// -- private helpers --
+
+	/**
+	 * Looks up the byte[] arrays that back the three channel planes at the
+	 * given position and where each plane starts within them. Returns false if
+	 * the planes cannot be accessed directly.
+	 */
+	private boolean nativePlanes(final long[] pos) {
+		if (!direct) return false;
+		final int planeSize = w * h;
+		for (int channel = 0; channel < 3; channel++) {
+			long index = 0;
+			for (int d = pos.length - 1; d >= 2; d--) {
+				final long p = d == cIndex ? pos[d] + channel : pos[d];
+				index = index * ds.dimension(d) + p;
+			}
+			final byte[] array;
+			final long offset;
+			if (planar) {
+				final Object plane = ds.getPlane((int) index, false);
+				if (!(plane instanceof byte[])) return false;
+				array = (byte[]) plane;
+				offset = 0;
+			}
+			else {
+				array = arrayStore;
+				offset = index * planeSize;
+			}
+			if (offset + planeSize > array.length) return false;
+			channels[channel] = array;
+			offsets[channel] = (int) offset;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a row major {@link Cursor} over the plane of the given channel
+	 * relative to the red channel of the given position.
+	 */
+	private Cursor<? extends RealType<?>> channelCursor(final long[] pos,
+		final int channel)
+	{
+		RandomAccessibleInterval<? extends RealType<?>> view = ds.getImgPlus();
+		for (int d = pos.length - 1; d >= 0; d--) {
+			if (d == xIndex || d == yIndex) continue;
+			view = Views.hyperSlice(view, d, d == cIndex ? pos[d] + channel
+				: pos[d]);
+		}
+		if (yIndex < xIndex) view = Views.permute(view, 0, 1);
+		return Views.flatIterable(view).cursor();
+	}
+
+}
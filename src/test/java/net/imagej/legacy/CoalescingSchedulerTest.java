@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link CoalescingScheduler}.
+ */
+public class CoalescingSchedulerTest {
+
+	@Test
+	public void testMergesBursts() throws InterruptedException {
+		final CoalescingScheduler<String> scheduler =
+			new CoalescingScheduler<>(10000, 0, null);
+		try {
+			final AtomicInteger last = new AtomicInteger();
+			for (int i = 1; i <= 100; i++) {
+				final int value = i;
+				scheduler.submit("a", () -> last.set(value));
+			}
+			assertEquals(1, scheduler.getQueuedCount());
+			scheduler.flush();
+			assertEquals(100, last.get());
+			assertEquals(100, scheduler.getSubmittedCount());
+			assertEquals(99, scheduler.getMergedCount());
+			assertEquals(1, scheduler.getExecutedCount());
+		}
+		finally {
+			scheduler.dispose();
+		}
+	}
+
+	@Test
+	public void testKeepsOrderInBackground() throws InterruptedException {
+		final CoalescingScheduler<String> scheduler =
+			new CoalescingScheduler<>(20, 1, null);
+		try {
+			final List<String> order =
+				Collections.synchronizedList(new ArrayList<String>());
+			final CountDownLatch done = new CountDownLatch(3);
+			for (final String key : new String[] { "a", "b", "a", "c", "b" }) {
+				scheduler.submit(key, () -> {
+					order.add(key);
+					done.countDown();
+				});
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals(3, order.size());
+			assertEquals("a", order.get(0));
+			assertEquals("b", order.get(1));
+			assertEquals("c", order.get(2));
+			assertEquals(2, scheduler.getMergedCount());
+		}
+		finally {
+			scheduler.dispose();
+		}
+	}
+
+	@Test
+	public void testFlushWaitsForRunningBatch() throws InterruptedException {
+		final CoalescingScheduler<String> scheduler =
+			new CoalescingScheduler<>(1, 0, null);
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final AtomicInteger finished = new AtomicInteger();
+			scheduler.submit("a", () -> {
+				started.countDown();
+				try {
+					Thread.sleep(200);
+				}
+				catch (final InterruptedException exc) {
+					Thread.currentThread().interrupt();
+				}
+				finished.incrementAndGet();
+			});
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			scheduler.flush();
+			assertEquals(1, finished.get());
+		}
+		finally {
+			scheduler.dispose();
+		}
+	}
+
+	@Test
+	public void testZeroLatencyRunsImmediately() {
+		final CoalescingScheduler<String> scheduler =
+			new CoalescingScheduler<>(0, 0, null);
+		final AtomicInteger runs = new AtomicInteger();
+		scheduler.submit("a", runs::incrementAndGet);
+		scheduler.submit("a", runs::incrementAndGet);
+		assertEquals(2, runs.get());
+		assertEquals(0, scheduler.getQueuedCount());
+		scheduler.dispose();
+	}
+
+}
@@ -96,6 +96,7 @@ public class ImageJ1EncapsulationTest {
 					className.startsWith(net.imagej.legacy.convert.ImagePlusToDatasetConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ImagePlusToImageDisplayConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ImageTitleToImagePlusConverter.class.getName()) ||
+					className.startsWith("net.imagej.legacy.convert.ResultsTableArrays") ||
 					className.startsWith(net.imagej.legacy.convert.ResultsTableColumnWrapper.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ResultsTableToGenericTableConverter.class.getName()) ||
 					className.startsWith(net.imagej.legacy.convert.ResultsTableWrapper.class.getName()) ||
@@ -117,16 +118,22 @@ public class ImageJ1EncapsulationTest {
 					className.startsWith(net.imagej.legacy.translate.ColorTableHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.CompositeHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.DefaultImageTranslator.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.DisplaySyncTracker.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.GrayDisplayCreator.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.GrayImagePlusCreator.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.GrayPixelHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.Harmonizer.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.LazyGrayVirtualStack.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.LegacyUtils.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.MappedVirtualStack.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.MergedRgbVirtualStack.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.MetadataHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.NameHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.OverlayHarmonizer.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.ParallelPlanes.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.PlaneChangeDetector.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.PlaneHarmonizer.class.getName()) ||
+					className.startsWith(net.imagej.legacy.translate.PlaneSnapshot.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.PositionHarmonizer.class.getName()) ||
 					className.startsWith(net.imagej.legacy.translate.ResultsTableHarmonizer.class.getName()))
 			{
@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ImageLocks}.
+ */
+public class ImageLocksTest {
+
+	@Test
+	public void testReadAndWriteLocks() throws InterruptedException {
+		final ImageLocks locks = new ImageLocks();
+		final Object a = new Object(), b = new Object();
+		try (final ImageLocks.Held held =
+			locks.acquire(Arrays.asList(a, b), Collections.singletonList(b)))
+		{
+			assertEquals(1, locks.get(a).getReadLockCount());
+			assertTrue(locks.get(b).isWriteLocked());
+			assertEquals(0, locks.get(b).getReadLockCount());
+		}
+		assertEquals(0, locks.get(a).getReadLockCount());
+		assertFalse(locks.get(b).isWriteLocked());
+	}
+
+	@Test
+	public void testDisjointImagesDoNotBlock() throws InterruptedException {
+		final ImageLocks locks = new ImageLocks();
+		final Object a = new Object(), b = new Object();
+		try (final ImageLocks.Held held =
+			locks.acquire(null, Collections.singletonList(a)))
+		{
+			final CountDownLatch acquired = new CountDownLatch(1);
+			final Thread other = new Thread(() -> {
+				try (final ImageLocks.Held h =
+					locks.acquire(null, Collections.singletonList(b)))
+				{
+					acquired.countDown();
+				}
+				catch (final InterruptedException exc) {
+					// fail below
+				}
+			});
+			other.start();
+			assertTrue(acquired.await(10, TimeUnit.SECONDS));
+			other.join();
+		}
+	}
+
+	@Test
+	public void testAcquireAllWaitsForImageLocks() throws InterruptedException {
+		final ImageLocks locks = new ImageLocks();
+		final Object a = new Object();
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final Thread other;
+		try (final ImageLocks.Held held =
+			locks.acquire(null, Collections.singletonList(a)))
+		{
+			other = new Thread(() -> {
+				try (final ImageLocks.Held h = locks.acquireAll()) {
+					acquired.countDown();
+				}
+				catch (final InterruptedException exc) {
+					// fail below
+				}
+			});
+			other.start();
+			assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		}
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+		other.join();
+	}
+
+	@Test
+	public void testOppositeOrdersDoNotDeadlock() throws InterruptedException {
+		final ImageLocks locks = new ImageLocks();
+		final Object a = new Object(), b = new Object();
+		final int rounds = 200;
+		final CountDownLatch done = new CountDownLatch(2);
+		for (final Object[] order : new Object[][] { { a, b }, { b, a } }) {
+			new Thread(() -> {
+				try {
+					for (int i = 0; i < rounds; i++) {
+						locks.acquire(null, Arrays.asList(order)).close();
+					}
+					done.countDown();
+				}
+				catch (final InterruptedException exc) {
+					// fail below
+				}
+			}).start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+	}
+
+}
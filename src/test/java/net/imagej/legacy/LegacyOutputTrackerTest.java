@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imagej.legacy.command.LegacyCommandExecutor;
+import net.imagej.legacy.command.LegacyThreadGroup;
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LegacyOutputTracker}.
+ */
+public class LegacyOutputTrackerTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Test
+	public void testTrackerPerThreadGroup() throws InterruptedException {
+		final ImagePlus imp = new ImagePlus();
+		final LegacyThreadGroup group = new LegacyThreadGroup(null);
+		final LegacyThreadGroup other = new LegacyThreadGroup(null);
+		final AtomicBoolean seenByOther = new AtomicBoolean(true);
+
+		final Thread thread = new Thread(group, () -> {
+			LegacyOutputTracker.addOutput(imp);
+			LegacyOutputTracker.addClosed(imp);
+		});
+		thread.start();
+		thread.join();
+		final Thread otherThread = new Thread(other, () -> seenByOther.set(
+			LegacyOutputTracker.containsOutput(imp)));
+		otherThread.start();
+		otherThread.join();
+
+		assertFalse(seenByOther.get());
+		// threads outside of any legacy group track nothing
+		assertFalse(LegacyOutputTracker.containsOutput(imp));
+	}
+
+	@Test
+	public void testTrackerClearedAfterTask() throws Exception {
+		final ImagePlus imp = new ImagePlus();
+		final LegacyCommandExecutor executor = new LegacyCommandExecutor(null);
+		final AtomicReference<LegacyThreadGroup> group =
+			new AtomicReference<>();
+		final AtomicBoolean tracked = new AtomicBoolean();
+		try {
+			executor.submit(() -> {
+				group.set(LegacyCommandExecutor.currentWorker()
+					.getLegacyThreadGroup());
+				LegacyOutputTracker.addOutput(imp);
+				LegacyOutputTracker.addClosed(imp);
+				tracked.set(LegacyOutputTracker.containsOutput(imp) &&
+					LegacyOutputTracker.containsClosed(imp));
+			}).get();
+		}
+		finally {
+			executor.dispose();
+		}
+
+		assertTrue(tracked.get());
+		// the worker lives on, but the images of its last task are gone
+		assertEquals(0, group.get().getOutputTracker().getOutputs().length);
+		assertEquals(0, group.get().getOutputTracker().getClosed().length);
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link WeakIdentityIndex}.
+ */
+public class WeakIdentityIndexTest {
+
+	@Test
+	public void testBidirectional() {
+		final WeakIdentityIndex<Object, Object> index = new WeakIdentityIndex<>();
+		final Object key = new Object(), value = new Object();
+		index.put(key, value, false);
+		assertSame(value, index.get(key));
+		assertSame(key, index.getKey(value));
+
+		// remapping either side drops the old mapping
+		final Object otherValue = new Object();
+		index.put(key, otherValue, true);
+		assertSame(otherValue, index.get(key));
+		assertNull(index.getKey(value));
+
+		final Object otherKey = new Object();
+		index.put(otherKey, otherValue, false);
+		assertNull(index.get(key));
+		assertSame(otherKey, index.getKey(otherValue));
+		assertEquals(1, index.keys().size());
+
+		index.removeValue(otherValue);
+		assertNull(index.get(otherKey));
+		assertTrue(index.values().isEmpty());
+	}
+
+	@Test
+	public void testReserve() {
+		final WeakIdentityIndex<Object, Object> index = new WeakIdentityIndex<>();
+		final Object key = new Object(), value = new Object();
+		assertTrue(index.reserve(key));
+		assertFalse(index.reserve(key));
+		assertNull(index.get(key));
+		assertTrue(index.keys().isEmpty());
+
+		index.put(key, value, true);
+		assertSame(value, index.get(key));
+		assertFalse(index.reserve(key));
+
+		index.removeKey(key);
+		assertNull(index.getKey(value));
+		assertTrue(index.reserve(key));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final WeakIdentityIndex<Object, Object> index = new WeakIdentityIndex<>();
+		final int threads = 4, count = 1000;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			final List<Object> keys = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final boolean weak = t % 2 == 0;
+				final List<Object> own = new ArrayList<>();
+				for (int i = 0; i < count; i++) {
+					own.add(new Object());
+				}
+				keys.addAll(own);
+				futures.add(executor.submit(() -> {
+					for (final Object key : own) {
+						final Object value = new Object();
+						if (index.reserve(key)) index.put(key, value, weak);
+						assertSame(value, index.get(key));
+						assertSame(key, index.getKey(value));
+						index.keys();
+					}
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+			assertEquals(keys.size(), index.keys().size());
+			for (final Object key : keys) {
+				assertSame(key, index.getKey(index.get(key)));
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.command;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LegacyThreadGroup}.
+ */
+public class LegacyThreadGroupTest {
+
+	@Test
+	public void testAwaitThreads() throws InterruptedException {
+		final LegacyThreadGroup group = new LegacyThreadGroup(null);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch nested = new CountDownLatch(1);
+		final Thread worker = new Thread(group, () -> {
+			await(release);
+			// hatch another thread on the way out; it must be waited for too
+			new Thread(() -> await(nested)).start();
+		}, "worker");
+		worker.start();
+
+		final Thread waiter = new Thread(() -> {
+			try {
+				group.awaitThreads();
+			}
+			catch (final InterruptedException exc) {
+				throw new RuntimeException(exc);
+			}
+		});
+		waiter.start();
+		waiter.join(100);
+		assertTrue(waiter.isAlive());
+
+		release.countDown();
+		worker.join();
+		waiter.join(100);
+		assertTrue(waiter.isAlive());
+
+		nested.countDown();
+		waiter.join(10000);
+		assertFalse(waiter.isAlive());
+	}
+
+	@Test
+	public void testWhitelistedThreadsAreIgnored() throws InterruptedException {
+		final LegacyThreadGroup group = new LegacyThreadGroup(null);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread selector = new Thread(group, () -> await(release), "zSelector");
+		selector.start();
+		try {
+			group.awaitThreads();
+		}
+		finally {
+			release.countDown();
+		}
+		selector.join();
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -31,11 +31,13 @@
 
 package net.imagej.legacy.convert;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import net.imagej.patcher.LegacyInjector;
 import net.imagej.table.Column;
+import net.imagej.table.DoubleColumn;
 import net.imagej.table.GenericTable;
 import net.imagej.table.Table;
 
@@ -215,6 +217,140 @@ public class ResultsTableConversionTest {
 		}
 	}
 
+	@Test
+	public void testColumnWrapperIterator() {
+		final Column<Object> c = new ResultsTableColumnWrapper(table, 3);
+
+		int i = 0;
+		for (final Object o : c) {
+			if (stringValues[3][i] != null) assertEquals(stringValues[3][i], o);
+			else assertEquals(values[3][i], (Double) o, 0);
+			i++;
+		}
+		assertEquals(table.size(), i);
+	}
+
+	@Test
+	public void testColumnWrapperDoubleView() {
+		final ResultsTableColumnWrapper c = new ResultsTableColumnWrapper(table, 0);
+		final DoubleColumn view = c.doubleView();
+
+		assertEquals(headings[0], view.getHeader());
+		assertEquals(table.size(), view.size());
+		for (int i = 0; i < view.size(); i++) {
+			assertEquals(values[0][i], view.getValue(i), 0);
+		}
+
+		// the view shares the table's storage
+		table.setValue(0, 1, 42);
+		assertEquals(42, view.getValue(1), 0);
+		view.setValue(2, 17);
+		assertEquals(17, table.getValueAsDouble(0, 2), 0);
+	}
+
+	@Test
+	public void testColumnWrapperDoubleStream() {
+		final ResultsTableColumnWrapper c = new ResultsTableColumnWrapper(table, 0);
+		assertArrayEquals(values[0], c.doubleStream().toArray(), 0);
+
+		// string cells read as NaN
+		final double[] mixed = new ResultsTableColumnWrapper(table, 3)
+			.doubleStream().toArray();
+		assertTrue(Double.isNaN(mixed[2]));
+		assertEquals(values[3][4], mixed[4], 0);
+	}
+
+	@Test
+	public void testResultsTableWrapperIndices() {
+		final GenericTable t = new ResultsTableWrapper(table);
+
+		assertEquals(0, t.getRowIndex("label1"));
+		assertEquals(4, t.getRowIndex("label5"));
+		assertEquals(-1, t.getRowIndex("missing"));
+		assertEquals(2, t.getColumnIndex("col-3"));
+
+		// changes made directly to the ResultsTable are noticed
+		table.setLabel("moved", 4);
+		assertEquals(4, t.getRowIndex("moved"));
+		assertEquals(-1, t.getRowIndex("label5"));
+		// only the row found is verified, so an earlier copy is not noticed
+		table.setLabel("moved", 1);
+		assertEquals(4, t.getRowIndex("moved"));
+		// until the index is rebuilt, as the label it replaced forces
+		assertEquals(-1, t.getRowIndex("label2"));
+		assertEquals(1, t.getRowIndex("moved"));
+		table.incrementCounter();
+		table.setLabel("direct", 5);
+		assertEquals(5, t.getRowIndex("direct"));
+
+		// changes made through the wrapper are indexed
+		t.appendRow("appended");
+		assertEquals(6, t.getRowIndex("appended"));
+		t.setColumnHeader(2, "renamed");
+		assertEquals(2, t.getColumnIndex("renamed"));
+		assertEquals(-1, t.getColumnIndex("col-3"));
+
+		t.removeRows("label1", "appended", "missing");
+		assertEquals(5, t.getRowCount());
+		assertEquals(-1, t.getRowIndex("label1"));
+		assertEquals(0, t.getRowIndex("moved"));
+		assertEquals(4, t.getRowIndex("direct"));
+	}
+
+	@Test
+	public void testResultsTableWrapperAfterReset() {
+		table.setLabel("label1", 1);
+		final GenericTable t = new ResultsTableWrapper(table);
+		assertEquals(0, t.getRowIndex("label1"));
+
+		table.reset();
+		t.appendRow();
+		assertEquals(-1, t.getRowIndex("label1"));
+		table.incrementCounter();
+		table.setLabel("label1", 0);
+		assertEquals(0, t.getRowIndex("label1"));
+	}
+
+	@Test
+	public void testResultsTableWrapperBulk() {
+		final GenericTable t = new ResultsTableWrapper(table);
+
+		// range delete
+		t.removeRows(1, 2);
+		assertEquals(3, t.getRowCount());
+		final int[] kept = { 0, 3, 4 };
+		for (int i = 0; i < t.getColumnCount(); i++) {
+			for (int j = 0; j < kept.length; j++) {
+				if (stringValues[i][kept[j]] != null) assertEquals(
+					stringValues[i][kept[j]], t.get(i, j));
+				else assertEquals(values[i][kept[j]], (Double) t.get(i, j), 0);
+			}
+		}
+		assertEquals(2, t.getRowIndex("label5"));
+
+		// block of rows
+		t.appendRows("x", "y");
+		assertEquals(5, t.getRowCount());
+		assertEquals(4, t.getRowIndex("y"));
+		for (int i = 0; i < t.getColumnCount(); i++) {
+			assertEquals(0, (Double) t.get(i, 4), 0);
+		}
+
+		// whole primitive column
+		final DoubleColumn column = new DoubleColumn("bulk");
+		for (int j = 0; j < 7; j++) {
+			column.add(j * 1.5);
+		}
+		assertTrue(t.add(column));
+		assertEquals(7, t.getRowCount());
+		assertEquals(6, t.getColumnCount());
+		assertEquals(5, t.getColumnIndex("bulk"));
+		for (int j = 0; j < 7; j++) {
+			assertEquals(j * 1.5, (Double) t.get(5, j), 0);
+		}
+		assertEquals(0, (Double) t.get(0, 6), 0);
+	}
+
 	@Test
 	public void testConvert() {
 		context = new Context();
@@ -31,9 +31,13 @@
 
 package net.imagej.legacy.plugin;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
@@ -43,6 +47,9 @@ import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
+import net.imagej.legacy.IJ1Helper;
+import net.imagej.legacy.LegacyService;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -121,6 +128,81 @@ public class IJ1MacroLanguageTest {
 		assertNull(engine.get("goodbye"));
 	}
 
+	@Test
+	public void testRepeatedEval() throws ScriptException {
+		final ScriptLanguage language = scriptService.getLanguageByExtension("ijm");
+		final ScriptEngine engine = language.getScriptEngine();
+		final String macro = "" + //
+			"sum = 0;\n" + //
+			"for (i = 0; i < values.length; i++) sum += values[i];\n" + //
+			"label = prefix + sum;\n";
+
+		// the same macro must see fresh inputs on every run
+		engine.put("values", new double[] { 1, 2, 3 });
+		engine.put("prefix", "sum: \"quoted\"\n");
+		engine.eval(macro);
+		assertEquals(6.0, engine.get("sum"));
+		assertEquals("sum: \"quoted\"\n6", engine.get("label"));
+
+		engine.put("values", new int[] { 4, 5 });
+		engine.put("prefix", "total ");
+		engine.eval(macro);
+		assertEquals(9.0, engine.get("sum"));
+		assertEquals("total 9", engine.get("label"));
+	}
+
+	@Test
+	public void testTextFallback() throws ScriptException {
+		// a cache size of zero makes the engine pass its inputs as macro text
+		context.dispose();
+		System.setProperty(IJ1Helper.MACRO_CACHE_PROPERTY, "0");
+		try {
+			setUp();
+		}
+		finally {
+			System.clearProperty(IJ1Helper.MACRO_CACHE_PROPERTY);
+		}
+		assertFalse(context.service(LegacyService.class).getIJ1Helper()
+			.canRunCompiledMacros());
+
+		testRepeatedEval();
+
+		// null inputs are NaN, as they are on the compiled path
+		final ScriptEngine engine =
+			scriptService.getLanguageByExtension("ijm").getScriptEngine();
+		engine.put("nothing", null);
+		engine.eval("wasNull = isNaN(nothing);\n");
+		assertEquals(1.0, engine.get("wasNull"));
+	}
+
+	@Test
+	public void testTypedBindings() throws ScriptException {
+		final IJ1Helper ij1Helper =
+			context.service(LegacyService.class).getIJ1Helper();
+		assumeTrue(ij1Helper.canRunCompiledMacros());
+
+		final ScriptLanguage language = scriptService.getLanguageByExtension("ijm");
+		final ScriptEngine engine = language.getScriptEngine();
+		engine.put("input", new float[] { 0.5f, 1.5f });
+		engine.put("nothing", null);
+		engine.eval("" + //
+			"wasNull = isNaN(nothing);\n" + //
+			"doubled = newArray(input.length);\n" + //
+			"for (i = 0; i < input.length; i++) doubled[i] = 2 * input[i];\n" + //
+			"names = newArray(\"a\", \"b\");\n" + //
+			"mixed = newArray(1, \"two\");\n" + //
+			"missing = NaN;\n");
+
+		assertArrayEquals(new double[] { 1, 3 }, (double[]) engine.get("doubled"),
+			0);
+		assertArrayEquals(new String[] { "a", "b" }, (String[]) engine.get(
+			"names"));
+		assertArrayEquals(new Object[] { 1.0, "two" }, (Object[]) engine.get(
+			"mixed"));
+		assertTrue(Double.isNaN((Double) engine.get("missing")));
+		assertEquals(1.0, engine.get("wasNull"));
+	}
+
 	@Test
 	public void testParameters() throws InterruptedException, ExecutionException,
 		IOException, ScriptException
@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.legacy.translate;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.patcher.LegacyInjector;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.After;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link ColorPixelHarmonizer}.
+ */
+public class ColorPixelHarmonizerTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	private final Context context = new Context(DatasetService.class);
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testPlanarRoundTrip() {
+		final DatasetService service = context.getService(DatasetService.class);
+		final Dataset ds =
+			service.create(new long[] { 3, 2, 3, 2 }, "planar", new AxisType[] {
+				Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z }, 8, false, false);
+		assertRoundTrip(ds);
+	}
+
+	@Test
+	public void testArrayRoundTrip() {
+		final DatasetService service = context.getService(DatasetService.class);
+		final ImgPlus<UnsignedByteType> imgPlus =
+			new ImgPlus<>(ArrayImgs.unsignedBytes(3, 2, 3, 2), "array",
+				new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z });
+		assertRoundTrip(service.create(imgPlus));
+	}
+
+	@Test
+	public void testYXOrderedRoundTrip() {
+		final DatasetService service = context.getService(DatasetService.class);
+		final ImgPlus<UnsignedByteType> imgPlus =
+			new ImgPlus<>(ArrayImgs.unsignedBytes(2, 3, 3, 2), "yx",
+				new AxisType[] { Axes.Y, Axes.X, Axes.CHANNEL, Axes.Z });
+		assertRoundTrip(service.create(imgPlus));
+	}
+
+	// -- helper methods --
+
+	private void assertRoundTrip(final Dataset ds) {
+		ds.setRGBMerged(true);
+		for (int z = 0; z < 2; z++) {
+			for (int c = 0; c < 3; c++) {
+				for (int y = 0; y < 2; y++) {
+					for (int x = 0; x < 3; x++) {
+						set(ds, x, y, c, z, 200 + 10 * z + 3 * c + x + y);
+					}
+				}
+			}
+		}
+
+		final ImageStack stack = new ImageStack(3, 2);
+		stack.addSlice(null, new int[6]);
+		stack.addSlice(null, new int[6]);
+		final ImagePlus imp = new ImagePlus("test", stack);
+		imp.setDimensions(1, 2, 1);
+
+		final ColorPixelHarmonizer harmonizer = new ColorPixelHarmonizer();
+		harmonizer.updateLegacyImage(ds, imp);
+		assertEquals(rgb(200, 203, 206), stack.getProcessor(1).get(0, 0));
+		assertEquals(rgb(212, 215, 218), stack.getProcessor(2).get(2, 0));
+		assertEquals(rgb(213, 216, 219), stack.getProcessor(2).get(2, 1));
+
+		stack.getProcessor(2).set(1, 1, rgb(1, 2, 3));
+		harmonizer.updateDataset(ds, imp);
+		assertEquals(1, get(ds, 1, 1, 0, 1), 0);
+		assertEquals(2, get(ds, 1, 1, 1, 1), 0);
+		assertEquals(3, get(ds, 1, 1, 2, 1), 0);
+		assertEquals(206, get(ds, 2, 1, 1, 0), 0);
+	}
+
+	private int rgb(final int r, final int g, final int b) {
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+
+	private void set(final Dataset ds, final int x, final int y, final int c,
+		final int z, final double value)
+	{
+		access(ds, x, y, c, z).get().setReal(value);
+	}
+
+	private double get(final Dataset ds, final int x, final int y, final int c,
+		final int z)
+	{
+		return access(ds, x, y, c, z).get().getRealDouble();
+	}
+
+	private RandomAccess<? extends RealType<?>> access(final Dataset ds,
+		final int x, final int y, final int c, final int z)
+	{
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(x, ds.dimensionIndex(Axes.X));
+		access.setPosition(y, ds.dimensionIndex(Axes.Y));
+		access.setPosition(c, ds.dimensionIndex(Axes.CHANNEL));
+		access.setPosition(z, ds.dimensionIndex(Axes.Z));
+		return access;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import static org.junit.Assert.assertEquals;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.patcher.LegacyInjector;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+
+import org.junit.After;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link GrayPixelHarmonizer}.
+ */
+public class GrayPixelHarmonizerTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	private final Context context = new Context(DatasetService.class);
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testSigned16BitRoundTrip() {
+		final DatasetService service = context.getService(DatasetService.class);
+		final Dataset ds =
+			service.create(new long[] { 3, 2, 2 }, "signed", new AxisType[] {
+				Axes.X, Axes.Y, Axes.Z }, 16, true, false);
+		fill(ds, -3);
+
+		final ImagePlus imp = makeImagePlus(3, 2, 2, false);
+		final GrayPixelHarmonizer harmonizer = new GrayPixelHarmonizer();
+		harmonizer.updateLegacyImage(ds, imp);
+
+		final ImageStack stack = imp.getStack();
+		assertEquals(32765, stack.getProcessor(1).getf(0, 0), 0);
+		assertEquals(32767, stack.getProcessor(1).getf(2, 0), 0);
+		assertEquals(32776, stack.getProcessor(2).getf(2, 1), 0);
+
+		stack.getProcessor(2).setf(1, 1, 0);
+		harmonizer.updateDataset(ds, imp);
+		assertEquals(-32768, get(ds, 1, 1, 1), 0);
+		assertEquals(-3, get(ds, 0, 0, 0), 0);
+		assertEquals(8, get(ds, 2, 1, 1), 0);
+	}
+
+	@Test
+	public void testYXOrderedArrayImg() {
+		final DatasetService service = context.getService(DatasetService.class);
+		final ImgPlus<IntType> imgPlus =
+			new ImgPlus<>(ArrayImgs.ints(2, 3, 2), "yx", new AxisType[] { Axes.Y,
+				Axes.X, Axes.Z });
+		final Dataset ds = service.create(imgPlus);
+		fill(ds, 0);
+
+		final ImagePlus imp = makeImagePlus(3, 2, 2, true);
+		final GrayPixelHarmonizer harmonizer = new GrayPixelHarmonizer();
+		harmonizer.updateLegacyImage(ds, imp);
+
+		final ImageStack stack = imp.getStack();
+		// x varies slowest in the Dataset but fastest in legacy ImageJ
+		assertEquals(get(ds, 1, 0, 0), stack.getProcessor(1).getf(1, 0), 0);
+		assertEquals(get(ds, 2, 1, 1), stack.getProcessor(2).getf(2, 1), 0);
+
+		stack.getProcessor(1).setf(2, 0, 1e12f);
+		stack.getProcessor(1).setf(0, 1, 7.6f);
+		harmonizer.updateDataset(ds, imp);
+		assertEquals(Integer.MAX_VALUE, get(ds, 2, 0, 0), 0);
+		assertEquals(8, get(ds, 0, 1, 0), 0);
+	}
+
+	// -- helper methods --
+
+	private void fill(final Dataset ds, final int start) {
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		int val = start;
+		while (cursor.hasNext()) {
+			cursor.next().setReal(val++);
+		}
+	}
+
+	private double get(final Dataset ds, final int x, final int y, final int z) {
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(x, ds.dimensionIndex(Axes.X));
+		access.setPosition(y, ds.dimensionIndex(Axes.Y));
+		access.setPosition(z, ds.dimensionIndex(Axes.Z));
+		return access.get().getRealDouble();
+	}
+
+	private ImagePlus makeImagePlus(final int w, final int h, final int z,
+		final boolean floating)
+	{
+		final ImageStack stack = new ImageStack(w, h);
+		for (int i = 0; i < z; i++) {
+			stack.addSlice(null, floating ? new float[w * h] : new short[w * h]);
+		}
+		final ImagePlus imp = new ImagePlus("test", stack);
+		imp.setDimensions(1, z, 1);
+		return imp;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.patcher.LegacyInjector;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.event.EventService;
+
+/**
+ * Tests {@link LazyGrayVirtualStack}.
+ */
+public class LazyGrayVirtualStackTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	private final Context context =
+		new Context(DatasetService.class, EventService.class);
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testConversionAndWriteBack() {
+		final DatasetService service = context.getService(DatasetService.class);
+		final Dataset ds =
+			service.create(new long[] { 2, 2, 3 }, "int", new AxisType[] { Axes.X,
+				Axes.Y, Axes.Z }, 32, true, false);
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(new long[] { 1, 1, 2 });
+		access.get().setReal(-70000);
+
+		final LazyGrayVirtualStack stack = new LazyGrayVirtualStack(ds, 32);
+		assertEquals(3, stack.getSize());
+		assertTrue(stack.isVirtual());
+		assertEquals(-70000, stack.getProcessor(3).getf(3), 0);
+		assertEquals(0, stack.getProcessor(1).getf(3), 0);
+
+		// cached planes are dropped when the Dataset is updated
+		access.get().setReal(12);
+		ds.update();
+		assertEquals(12, stack.getProcessor(3).getf(3), 0);
+
+		// assigned pixels are clamped into the Dataset
+		stack.setPixels(new float[] { 1.4f, 2.6f, 3e10f, -5 }, 2);
+		access.setPosition(new long[] { 0, 0, 1 });
+		assertEquals(1, access.get().getRealDouble(), 0);
+		access.setPosition(new long[] { 1, 0, 1 });
+		assertEquals(3, access.get().getRealDouble(), 0);
+		access.setPosition(new long[] { 0, 1, 1 });
+		assertEquals(Integer.MAX_VALUE, access.get().getRealDouble(), 0);
+		assertEquals(-5, stack.getProcessor(2).getf(3), 0);
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+
+import java.io.IOException;
+
+import net.imagej.patcher.LegacyInjector;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MappedVirtualStack}.
+ */
+public class MappedVirtualStackTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	@Test
+	public void testFloatPlanes() throws IOException {
+		final MappedVirtualStack stack = new MappedVirtualStack(2, 2, 3, 32);
+		try {
+			assertEquals(3, stack.getSize());
+			assertEquals(32, stack.getBitDepth());
+			assertArrayEquals(new float[4], (float[]) stack.getPixels(2), 0);
+
+			stack.setPixels(new float[] { 1, -2, 3.5f, 4 }, 2);
+			stack.setPixels(new float[] { 5, 6, 7, 8 }, 3);
+			assertArrayEquals(new float[] { 1, -2, 3.5f, 4 }, (float[]) stack
+				.getPixels(2), 0);
+			assertEquals(8, stack.getProcessor(3).getf(3), 0);
+			assertEquals(0, stack.getProcessor(1).getf(0), 0);
+		}
+		finally {
+			stack.dispose();
+		}
+	}
+
+	@Test
+	public void testRgbAndShortPlanes() throws IOException {
+		final MappedVirtualStack rgb = new MappedVirtualStack(3, 1, 2, 24);
+		final MappedVirtualStack gray = new MappedVirtualStack(3, 1, 2, 16);
+		try {
+			rgb.setPixels(new int[] { 0xff010203, 0xff040506, 0xff070809 }, 2);
+			assertArrayEquals(new int[] { 0xff010203, 0xff040506, 0xff070809 },
+				(int[]) rgb.getPixels(2));
+
+			gray.setPixels(new short[] { 1, (short) 65535, 3 }, 1);
+			assertEquals(65535, gray.getProcessor(1).get(1));
+			assertEquals(0, gray.getProcessor(2).get(1));
+		}
+		finally {
+			rgb.dispose();
+			gray.dispose();
+		}
+	}
+
+	@Test
+	public void testDisposeStackOfImagePlus() throws IOException {
+		final MappedVirtualStack stack = new MappedVirtualStack(2, 2, 3, 8);
+		final ImagePlus imp = new ImagePlus("mapped", stack);
+		assertFalse(stack.isDisposed());
+		LegacyUtils.disposeStack(imp);
+		assertTrue(stack.isDisposed());
+		// disposing twice is harmless
+		stack.dispose();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testDisposedStackIsUnmapped() throws IOException {
+		final MappedVirtualStack stack = new MappedVirtualStack(2, 2, 3, 8);
+		stack.setPixels(new byte[] { 1, 2, 3, 4 }, 1);
+		stack.dispose();
+		stack.getPixels(1);
+	}
+
+}
@@ -32,21 +32,27 @@
 package net.imagej.legacy.translate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 
 import net.imagej.Dataset;
 import net.imagej.DatasetService;
 import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
+import net.imagej.event.DataUpdatedEvent;
 import net.imagej.patcher.LegacyInjector;
 import net.imglib2.RandomAccess;
 import net.imglib2.type.numeric.RealType;
 
 import org.junit.Test;
 import org.scijava.Context;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
 
 /**
  * Tests the MergedRgbVirtualStack
@@ -55,7 +61,8 @@ import org.scijava.Context;
  */
 public class MergedRgbVirtualStackTest {
 
-	private Context context = new Context(DatasetService.class);
+	private Context context = new Context(DatasetService.class,
+		EventService.class);
 
 	static {
 		LegacyInjector.preinit();
@@ -147,6 +154,114 @@ public class MergedRgbVirtualStackTest {
 		assertEquals(rgb3, proc.get(3));
 	}
 
+	@Test
+	public void testCacheAndWriteBack() {
+		DatasetService service = context.getService(DatasetService.class);
+
+		Dataset ds =
+			service.create(new long[] { 2, 2, 3, 2 }, "test", new AxisType[] {
+				Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z }, 8, false, false);
+		ds.setRGBMerged(true);
+
+		setPlane(ds, 0, 5, 6, 7, 8);
+		setPlane(ds, 1, 15, 16, 17, 18);
+		setPlane(ds, 2, 25, 26, 27, 28);
+
+		MergedRgbVirtualStack vstack = new MergedRgbVirtualStack(ds);
+		assertEquals(rgb(5, 15, 25), vstack.getProcessor(1).get(0));
+
+		// cached planes are dropped when the Dataset is updated
+		RandomAccess<? extends RealType<?>> accessor =
+			ds.getImgPlus().randomAccess();
+		accessor.setPosition(new long[] { 0, 0, 0, 0 });
+		accessor.get().setReal(100);
+		ds.update();
+		assertEquals(rgb(100, 15, 25), vstack.getProcessor(1).get(0));
+
+		// assigned pixels end up in the Dataset's channels
+		int[] pixels =
+			{ rgb(1, 2, 3), rgb(4, 5, 6), rgb(7, 8, 9), rgb(10, 11, 12) };
+		vstack.setPixels(pixels, 2);
+		accessor.setPosition(new long[] { 1, 0, 0, 1 });
+		assertEquals(4, accessor.get().getRealDouble(), 0);
+		accessor.fwd(2);
+		assertEquals(5, accessor.get().getRealDouble(), 0);
+		accessor.fwd(2);
+		assertEquals(6, accessor.get().getRealDouble(), 0);
+		assertEquals(rgb(10, 11, 12), vstack.getProcessor(2).get(3));
+
+		// caching can be switched off
+		vstack.setCacheSize(0);
+		assertEquals(rgb(100, 15, 25), vstack.getProcessor(1).get(0));
+		assertEquals(rgb(7, 8, 9), vstack.getProcessor(2).get(2));
+	}
+
+	@Test
+	public void testUpdatesDatasetOnce() {
+		DatasetService service = context.getService(DatasetService.class);
+
+		Dataset ds =
+			service.create(new long[] { 2, 2, 3, 2 }, "test", new AxisType[] {
+				Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z }, 8, false, false);
+		ds.setRGBMerged(true);
+
+		MergedRgbVirtualStack vstack = new MergedRgbVirtualStack(ds);
+		UpdateCounter counter = new UpdateCounter(ds);
+		context.getService(EventService.class).subscribe(counter);
+
+		vstack.setPixels(new int[] { 1, 2, 3, 4 }, 1);
+		vstack.setPixels(new int[] { 5, 6, 7, 8 }, 2);
+		assertEquals(0, counter.count);
+		vstack.updateDataset();
+		assertEquals(1, counter.count);
+		// nothing was assigned since
+		vstack.updateDataset();
+		assertEquals(1, counter.count);
+		assertEquals(rgb(0, 0, 7), vstack.getProcessor(2).get(2));
+	}
+
+	@Test
+	public void testRestructuring() {
+		DatasetService service = context.getService(DatasetService.class);
+
+		Dataset ds =
+			service.create(new long[] { 2, 2, 3, 2 }, "test", new AxisType[] {
+				Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z }, 8, false, false);
+		ds.setRGBMerged(true);
+
+		setPlane(ds, 0, 5, 6, 7, 8);
+		setPlane(ds, 3, 35, 36, 37, 38);
+
+		MergedRgbVirtualStack vstack = new MergedRgbVirtualStack(ds);
+		assertTrue(vstack.writesTo(ds));
+
+		vstack.deleteSlice(1);
+		assertEquals(1, vstack.getSize());
+		assertEquals(rgb(35, 0, 0), vstack.getProcessor(1).get(0));
+		assertFalse(vstack.writesTo(ds));
+
+		vstack.addSlice("added", new ColorProcessor(2, 2, new int[] { rgb(1, 2,
+			3), rgb(4, 5, 6), rgb(7, 8, 9), rgb(10, 11, 12) }), 0);
+		assertEquals(2, vstack.getSize());
+		assertEquals(rgb(4, 5, 6), vstack.getProcessor(1).get(1));
+		assertEquals(rgb(36, 0, 0), vstack.getProcessor(2).get(1));
+
+		// the Dataset plane has no array to hand out
+		assertNull(vstack.getImageArray());
+
+		vstack.deleteSlice(2);
+		Object[] array = vstack.getImageArray();
+		assertEquals(1, array.length);
+		assertEquals(rgb(10, 11, 12), ((int[]) array[0])[3]);
+		// the arrays are the slices themselves
+		((int[]) array[0])[3] = rgb(13, 14, 15);
+		assertEquals(rgb(13, 14, 15), vstack.getProcessor(1).get(3));
+	}
+
+	private int rgb(int r, int g, int b) {
+		return (0xff << 24) | (r << 16) | (g << 8) | (b << 0);
+	}
+
 	private void
 		setPlane(Dataset ds, int channel, int v0, int v1, int v2, int v3)
 	{
@@ -159,4 +274,20 @@ public class MergedRgbVirtualStackTest {
 		// setPlane() must copy pixels values rather than plane refs.
 		ds.setPlane(channel, plane);
 	}
+
+	/** Counts the updates of one {@link Dataset}. */
+	public static class UpdateCounter {
+
+		private final Dataset ds;
+		private int count;
+
+		public UpdateCounter(final Dataset ds) {
+			this.ds = ds;
+		}
+
+		@EventHandler
+		public void onEvent(final DataUpdatedEvent event) {
+			if (event.getObject() == ds) count++;
+		}
+	}
 }
@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2017 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.legacy.translate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import ij.plugin.filter.Analyzer;
+
+import net.imagej.patcher.LegacyInjector;
+import net.imagej.table.DefaultResultsTable;
+import net.imagej.table.DoubleColumn;
+import net.imagej.table.ResultsTable;
+import net.imagej.table.TableDisplay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.display.DisplayService;
+
+/**
+ * Tests {@link ResultsTableHarmonizer}.
+ */
+public class ResultsTableHarmonizerTest {
+
+	static {
+		LegacyInjector.preinit();
+	}
+
+	private Context context;
+	private ResultsTableHarmonizer harmonizer;
+	private ResultsTable table;
+	private ij.measure.ResultsTable ij1Table;
+
+	@Before
+	public void setUp() {
+		context = new Context(DisplayService.class);
+		final DisplayService displayService =
+			context.getService(DisplayService.class);
+		table = new DefaultResultsTable();
+		final TableDisplay display =
+			(TableDisplay) displayService.createDisplayQuietly(table);
+		displayService.setActiveDisplay(display);
+		harmonizer = new ResultsTableHarmonizer(displayService);
+		ij1Table = new ij.measure.ResultsTable();
+		Analyzer.setResultsTable(ij1Table);
+	}
+
+	@After
+	public void tearDown() {
+		Analyzer.setResultsTable(null);
+		context.dispose();
+	}
+
+	@Test
+	public void testColumnTransfer() {
+		addRows(0, 3);
+		harmonizer.setModernImageJResultsTable();
+		assertTable(3);
+	}
+
+	@Test
+	public void testIncrementalAppend() {
+		addRows(0, 2);
+		harmonizer.setModernImageJResultsTable();
+		final DoubleColumn column = table.get(0);
+
+		addRows(2, 3);
+		harmonizer.setModernImageJResultsTable();
+		assertTable(5);
+		// NB: columns are kept when IJ1 only appended rows
+		assertSame(column, table.get(0));
+	}
+
+	@Test
+	public void testRewriteForcesRebuild() {
+		addRows(0, 2);
+		harmonizer.setModernImageJResultsTable();
+		final DoubleColumn column = table.get(0);
+
+		addRows(2, 1);
+		ij1Table.setValue("Area", 0, 1000);
+		harmonizer.setModernImageJResultsTable();
+		assertEquals(1000, table.getValue(0, 0), 0);
+		assertEquals(3, table.getRowCount());
+		assertNotSame(column, table.get(0));
+	}
+
+	@Test
+	public void testMiddleRewriteForcesRebuild() {
+		addRows(0, 3);
+		harmonizer.setModernImageJResultsTable();
+
+		addRows(3, 1);
+		ij1Table.setValue("Mean", 1, 1000);
+		harmonizer.setModernImageJResultsTable();
+		assertEquals(1000, table.getValue(1, 1), 0);
+		assertEquals(4, table.getRowCount());
+	}
+
+	@Test
+	public void testLegacyTransfer() {
+		addRows(0, 3);
+		harmonizer.setModernImageJResultsTable();
+		Analyzer.setResultsTable(null);
+
+		harmonizer.setLegacyImageJResultsTable();
+		final ij.measure.ResultsTable result = Analyzer.getResultsTable();
+		assertEquals(3, result.getCounter());
+		for (int r = 0; r < 3; r++) {
+			assertEquals("row" + r, result.getLabel(r));
+			assertEquals(r, result.getValue("Area", r), 0);
+			assertEquals(10 * r, result.getValue("Mean", r), 0);
+		}
+	}
+
+	@Test
+	public void testNewColumnForcesRebuild() {
+		addRows(0, 2);
+		harmonizer.setModernImageJResultsTable();
+
+		ij1Table.incrementCounter();
+		ij1Table.addLabel("row2");
+		ij1Table.addValue("Area", 2);
+		ij1Table.addValue("Mean", 20);
+		ij1Table.addValue("Extra", 7);
+		harmonizer.setModernImageJResultsTable();
+		assertEquals(3, table.getColumnCount());
+		assertEquals("Extra", table.getColumnHeader(2));
+		assertEquals(7, table.getValue(2, 2), 0);
+	}
+
+	// -- Helper methods --
+
+	private void addRows(final int start, final int count) {
+		for (int r = start; r < start + count; r++) {
+			ij1Table.incrementCounter();
+			ij1Table.addLabel("row" + r);
+			ij1Table.addValue("Area", r);
+			ij1Table.addValue("Mean", 10 * r);
+		}
+	}
+
+	private void assertTable(final int rows) {
+		assertEquals(rows, table.getRowCount());
+		assertEquals(2, table.getColumnCount());
+		assertEquals("Area", table.getColumnHeader(0));
+		assertEquals("Mean", table.getColumnHeader(1));
+		for (int r = 0; r < rows; r++) {
+			assertEquals("row" + r, table.getRowHeader(r));
+			assertEquals(r, table.getValue(0, r), 0);
+			assertEquals(10 * r, table.getValue(1, r), 0);
+		}
+	}
+}